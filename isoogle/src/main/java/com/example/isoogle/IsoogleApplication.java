@@ -20,6 +20,7 @@ public class IsoogleApplication {
 			boolean envExists = new java.io.File(".env").exists();
 			System.out.println("IsoogleApplication started. .env file present: " + envExists);
 			System.out.println("Available endpoints: GET /api/cse?query=...&mode=semantic|iterative|cse");
+			System.out.println("                     GET /api/quota");
 		};
 	}
 
@@ -1,5 +1,7 @@
 package com.example.isoogle.controller;
 
+import com.example.stage3.CseQuotaExceededException;
+import com.example.stage3.CseQuotaGovernor;
 import com.example.stage3.WebAnalyzer;
 import com.example.stage3.SearchResult;
 import org.springframework.http.ResponseEntity;
@@ -69,6 +71,8 @@ public class IsoogleController {
                         resp.put("count", items.size());
                         resp.put("logs", logs);
                         return ResponseEntity.ok(resp);
+                    } catch (CseQuotaExceededException e) {
+                        throw e;
                     } catch (Exception e) {
                         Map<String, Object> errorResp = new HashMap<>();
                         errorResp.put("error", e.getMessage());
@@ -96,6 +100,14 @@ public class IsoogleController {
                 }
             }
 
+        } catch (CseQuotaExceededException e) {
+            // Out of search quota and nothing cached: tell the client when to come back
+            Map<String, Object> errorResp = new HashMap<>();
+            errorResp.put("error", e.getMessage());
+            errorResp.put("retryAfterSec", e.getRetryAfterSec());
+            return ResponseEntity.status(429)
+                    .header("Retry-After", String.valueOf(e.getRetryAfterSec()))
+                    .body(errorResp);
         } catch (IllegalStateException e) {
             return ResponseEntity.status(400).body(Collections.singletonMap("error", e.getMessage()));
         } catch (Exception e) {
@@ -104,6 +116,14 @@ public class IsoogleController {
         }
     }
 
+    /**
+     * Live Google CSE quota state.
+     */
+    @GetMapping("/api/quota")
+    public ResponseEntity<Map<String, Object>> quota() {
+        return ResponseEntity.ok(CseQuotaGovernor.snapshot());
+    }
+
     /**
      * Backwards-compatible alias for the frontend which previously called `/api/search?q=...`.
      */
@@ -2,6 +2,7 @@ package com.example.stage2;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 
@@ -15,6 +16,8 @@ import java.net.URLConnection;
  *   - Basic HTTP GET request
  *   - Customizable User-Agent
  *   - UTF-8 reading support
+ *   - Skips hosts whose circuit is open and URLs that recently failed
+ *     (see HostHealthTracker)
  */
 public class HTMLFetcher {
 
@@ -28,6 +31,12 @@ public class HTMLFetcher {
         StringBuilder html = new StringBuilder();
         BufferedReader reader = null;
 
+        if (!HostHealthTracker.tryAcquire(urlString)) {
+            System.out.println("[SKIP] Unhealthy host or recently failed URL: " + urlString);
+            return "";
+        }
+        long start = System.currentTimeMillis();
+
         try {
             URL url = new URL(urlString);
             URLConnection conn = url.openConnection();
@@ -35,6 +44,15 @@ public class HTMLFetcher {
             // Set a fake browser user agent to avoid rejection
             conn.setRequestProperty("User-Agent", "Mozilla/5.0");
 
+            if (conn instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) conn).getResponseCode();
+                if (status >= 400) {
+                    HostHealthTracker.recordResponse(urlString, status, System.currentTimeMillis() - start);
+                    System.out.println("[ERROR] Unable to fetch URL: " + urlString + " (HTTP " + status + ")");
+                    return "";
+                }
+            }
+
             reader = new BufferedReader(
                         new InputStreamReader(
                             conn.getInputStream(), "UTF-8"
@@ -45,8 +63,10 @@ public class HTMLFetcher {
             while ((line = reader.readLine()) != null) {
                 html.append(line).append("\n");
             }
+            HostHealthTracker.recordResponse(urlString, 200, System.currentTimeMillis() - start);
 
         } catch (Exception e) {
+            HostHealthTracker.recordFailure(urlString, System.currentTimeMillis() - start);
             System.out.println("[ERROR] Unable to fetch URL: " + urlString);
             e.printStackTrace();
             return "";       // return empty, avoid crashing later
@@ -0,0 +1,256 @@
+package com.example.stage2;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HostHealthTracker
+ * ----------------------------------------------------
+ * Per-host circuit breaker plus a negative cache of URLs that recently failed.
+ *
+ * Every fetch outcome is recorded against its host in a sliding window of the
+ * last calls. When the share of failed calls or of slow calls in the window
+ * reaches its threshold, the host's circuit opens and fetches to it are refused
+ * for a cool-down period instead of paying the full timeout again. After the
+ * cool-down one probe request is let through (half-open): success closes the
+ * circuit, failure opens it for another cool-down.
+ *
+ * Settings (system properties):
+ *   isoogle.health.enabled            enable tracking (default true)
+ *   isoogle.health.windowSize         calls kept per host (default 10)
+ *   isoogle.health.minCalls           calls needed before the rates count (default 3)
+ *   isoogle.health.failureRate        failure share that opens the circuit (default 0.5)
+ *   isoogle.health.slowRate           slow-call share that opens the circuit (default 0.8)
+ *   isoogle.health.slowCallMs         calls slower than this are slow (default 2000)
+ *   isoogle.health.cooldownSec        how long an open circuit refuses calls (default 60)
+ *   isoogle.health.negativeTtlSec     how long a failed URL is skipped (default 300)
+ */
+public class HostHealthTracker {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("isoogle.health.enabled", "true"));
+    private static final int WINDOW_SIZE = Integer.getInteger("isoogle.health.windowSize", 10);
+    private static final int MIN_CALLS = Integer.getInteger("isoogle.health.minCalls", 3);
+    private static final double FAILURE_RATE = Double.parseDouble(System.getProperty("isoogle.health.failureRate", "0.5"));
+    private static final double SLOW_RATE = Double.parseDouble(System.getProperty("isoogle.health.slowRate", "0.8"));
+    private static final long SLOW_CALL_MS = Long.getLong("isoogle.health.slowCallMs", 2000);
+    private static final long COOLDOWN_MS = Long.getLong("isoogle.health.cooldownSec", 60) * 1000;
+    private static final long NEGATIVE_TTL_MS = Long.getLong("isoogle.health.negativeTtlSec", 300) * 1000;
+
+    private static final int MAX_NEGATIVE_URLS = 10_000;
+    private static final long PROBE_TIMEOUT_MS = 30_000;  // a probe that never reports back frees the slot again
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final Map<String, HostState> HOSTS = new ConcurrentHashMap<>();
+
+    // URL -> time until which it is skipped; oldest entries are dropped past MAX_NEGATIVE_URLS
+    private static final Map<String, Long> FAILED_URLS = new LinkedHashMap<String, Long>(256, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_NEGATIVE_URLS;
+        }
+    };
+
+    /**
+     * Sliding window and circuit state of one host.
+     */
+    private static class HostState {
+        private final boolean[] failed = new boolean[WINDOW_SIZE];
+        private final boolean[] slow = new boolean[WINDOW_SIZE];
+        private int calls = 0;
+        private int next = 0;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private long probeStartedAt = -1;
+
+        synchronized boolean tryAcquire(long now) {
+            switch (state) {
+                case OPEN:
+                    if (now - openedAt < COOLDOWN_MS) return false;
+                    state = State.HALF_OPEN;
+                    probeStartedAt = now;
+                    return true;
+                case HALF_OPEN:
+                    if (now - probeStartedAt < PROBE_TIMEOUT_MS) return false;
+                    probeStartedAt = now;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        synchronized void release() {
+            if (state == State.HALF_OPEN) probeStartedAt = -1;
+        }
+
+        synchronized boolean isOpen(long now) {
+            return state == State.OPEN && now - openedAt < COOLDOWN_MS;
+        }
+
+        synchronized State record(boolean isFailure, boolean isSlow, long now) {
+            if (state == State.HALF_OPEN) {
+                if (isFailure || isSlow) {
+                    open(now);
+                } else {
+                    state = State.CLOSED;
+                    calls = 0;
+                    next = 0;
+                }
+                return state;
+            }
+
+            failed[next] = isFailure;
+            slow[next] = isSlow;
+            next = (next + 1) % WINDOW_SIZE;
+            calls = Math.min(calls + 1, WINDOW_SIZE);
+
+            if (state == State.CLOSED && calls >= MIN_CALLS
+                    && (rate(failed) >= FAILURE_RATE || rate(slow) >= SLOW_RATE)) {
+                open(now);
+            }
+            return state;
+        }
+
+        private void open(long now) {
+            state = State.OPEN;
+            openedAt = now;
+            probeStartedAt = -1;
+            calls = 0;
+            next = 0;
+        }
+
+        private double rate(boolean[] outcomes) {
+            int hits = 0;
+            for (int i = 0; i < calls; i++) {
+                if (outcomes[i]) hits++;
+            }
+            return (double) hits / calls;
+        }
+
+        synchronized String describe() {
+            return state + " (" + calls + " calls in window)";
+        }
+    }
+
+    /**
+     * Asks permission to fetch the URL. Returns false if the URL failed recently
+     * or its host's circuit is open. Call right before the network request; a
+     * true answer in the half-open state reserves the single probe.
+     */
+    public static boolean tryAcquire(String url) {
+        if (!ENABLED) return true;
+        long now = System.currentTimeMillis();
+        if (isRecentlyFailed(url, now)) return false;
+
+        String host = hostOf(url);
+        return host == null || HOSTS.computeIfAbsent(host, h -> new HostState()).tryAcquire(now);
+    }
+
+    /**
+     * True if the URL would currently be refused. Unlike tryAcquire this has no
+     * side effects, so it can be used to filter candidate links.
+     */
+    public static boolean isBlocked(String url) {
+        if (!ENABLED) return false;
+        long now = System.currentTimeMillis();
+        if (isRecentlyFailed(url, now)) return true;
+
+        String host = hostOf(url);
+        HostState state = host == null ? null : HOSTS.get(host);
+        return state != null && state.isOpen(now);
+    }
+
+    /**
+     * Records an HTTP response. 5xx and 429 count as host failures; other 4xx
+     * answers mean the host is fine but the URL is not worth retrying.
+     */
+    public static void recordResponse(String url, int status, long elapsedMs) {
+        if (!ENABLED) return;
+        boolean hostFailure = status >= 500 || status == 429;
+        if (status >= 400) rememberFailedUrl(url);
+        record(url, hostFailure, elapsedMs);
+    }
+
+    /**
+     * Records a fetch that failed without a response (timeout, connection error).
+     */
+    public static void recordFailure(String url, long elapsedMs) {
+        if (!ENABLED) return;
+        rememberFailedUrl(url);
+        record(url, true, elapsedMs);
+    }
+
+    /**
+     * Records a fetch that we cancelled ourselves (deadline, prefetch cancelled). Says
+     * nothing about the host or the URL, so nothing is counted; a half-open probe slot
+     * is freed for the next request.
+     */
+    public static void recordCancelled(String url) {
+        if (!ENABLED) return;
+        String host = hostOf(url);
+        HostState state = host == null ? null : HOSTS.get(host);
+        if (state != null) state.release();
+    }
+
+    /**
+     * Skips the URL for the negative-cache TTL without touching its host's health.
+     */
+    public static void rememberFailedUrl(String url) {
+        if (!ENABLED || url == null) return;
+        synchronized (FAILED_URLS) {
+            FAILED_URLS.remove(url);
+            FAILED_URLS.put(url, System.currentTimeMillis() + NEGATIVE_TTL_MS);
+        }
+    }
+
+    /**
+     * Circuit state of the host, for logging.
+     */
+    public static String describe(String url) {
+        String host = hostOf(url);
+        HostState state = host == null ? null : HOSTS.get(host);
+        return state == null ? "CLOSED (no calls)" : state.describe();
+    }
+
+    private static void record(String url, boolean isFailure, long elapsedMs) {
+        String host = hostOf(url);
+        if (host == null) return;
+
+        HostState hostState = HOSTS.computeIfAbsent(host, h -> new HostState());
+        State before;
+        synchronized (hostState) {
+            before = hostState.state;
+        }
+        State after = hostState.record(isFailure, elapsedMs > SLOW_CALL_MS, System.currentTimeMillis());
+        if (after == State.OPEN && before != State.OPEN) {
+            System.out.println("[HEALTH] Circuit opened for " + host + ", skipping it for " + (COOLDOWN_MS / 1000) + " s");
+        } else if (after == State.CLOSED && before == State.HALF_OPEN) {
+            System.out.println("[HEALTH] Circuit closed for " + host);
+        }
+    }
+
+    private static boolean isRecentlyFailed(String url, long now) {
+        if (url == null) return false;
+        synchronized (FAILED_URLS) {
+            Long until = FAILED_URLS.get(url);
+            if (until == null) return false;
+            if (until > now) return true;
+            FAILED_URLS.remove(url);
+            return false;
+        }
+    }
+
+    private static String hostOf(String url) {
+        if (url == null) return null;
+        try {
+            String host = URI.create(url).getHost();
+            return host == null || host.isEmpty() ? null : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
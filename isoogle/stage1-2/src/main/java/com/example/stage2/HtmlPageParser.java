@@ -0,0 +1,589 @@
+package com.example.stage2;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HtmlPageParser
+ * ----------------------------------------------------
+ * Single-pass HTML scanner. One linear traversal of the document produces:
+ *   - the clean searchable text (same output as the former regex cleanHTML:
+ *     scripts, styles, comments and tags removed, only [a-zA-Z0-9] and CJK
+ *     ideographs kept, separated by single spaces)
+ *   - the page title and meta description
+ *   - sentence boundaries in the clean text, from sentence punctuation and
+ *     block-level tags (the punctuation itself is not kept in the text)
+ *   - the same-domain links, resolved against the page URL without their query
+ *     string (or, with LinkMode.KEEP_QUERY, without the fragment only), deduplicated
+ *     in document order, each with its anchor text and the clean text just before it
+ *
+ * Characters are pushed in with accept(), so the parser works on a stream as well
+ * as on a String; only a small tag buffer is kept besides the clean text. Subclasses
+ * can observe the clean text and new links as they are produced.
+ */
+public class HtmlPageParser {
+
+    private static final int MAX_TAG_CHARS = 2048;     // longer tags are truncated (their text is dropped anyway)
+    private static final int MAX_TITLE_CHARS = 512;
+    private static final int LINK_CONTEXT_CHARS = 200; // clean text kept before each link
+
+    private enum Mode { TEXT, TAG_OPEN, TAG, COMMENT, RAW_TEXT }
+
+    // Elements that always end a sentence
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "p", "div", "br", "li", "ul", "ol", "dl", "dt", "dd", "h1", "h2", "h3", "h4", "h5", "h6",
+            "table", "tr", "td", "th", "section", "article", "header", "footer", "nav", "aside",
+            "blockquote", "pre", "hr", "title", "form", "main");
+
+    private static final int NO_SENTENCE_END = 0;
+    private static final int SENTENCE_PUNCTUATION = 1;  // '.', '!' or '?' just seen
+    private static final int SENTENCE_END = 2;          // the next text starts a new sentence
+
+    /**
+     * How links are normalized.
+     */
+    public enum LinkMode {
+        /** Query string and fragment dropped; links back to the page itself are skipped (stage3). */
+        PATH_ONLY,
+        /** Only the fragment dropped; "page?id=1" and "page?id=2" stay distinct and the page may link to itself (stage2). */
+        KEEP_QUERY
+    }
+
+    /**
+     * Everything extracted from one page.
+     */
+    public static class Page {
+        private final String cleanText;
+        private final String title;
+        private final String description;
+        private final List<Link> links;
+        private final int[] sentenceStarts;
+
+        Page(String cleanText, String title, String description, List<Link> links, int[] sentenceStarts) {
+            this.cleanText = cleanText;
+            this.title = title;
+            this.description = description;
+            this.links = links;
+            this.sentenceStarts = sentenceStarts;
+        }
+
+        public String getCleanText() {
+            return cleanText;
+        }
+
+        /** Contents of the title element, or "" if there is none. */
+        public String getTitle() {
+            return title;
+        }
+
+        /** Content of the description meta tag, or "" if there is none. */
+        public String getDescription() {
+            return description;
+        }
+
+        public List<Link> getLinks() {
+            return links;
+        }
+
+        /**
+         * Offsets in the clean text where a new sentence starts, ascending. The first
+         * sentence (at offset 0) is not listed.
+         */
+        public int[] getSentenceStarts() {
+            return sentenceStarts;
+        }
+
+        public List<String> getLinkUrls() {
+            List<String> urls = new ArrayList<>(links.size());
+            for (Link link : links) urls.add(link.getUrl());
+            return urls;
+        }
+    }
+
+    /**
+     * A same-domain link with the text of its anchors and the clean text preceding it.
+     */
+    public static class Link {
+        private final String url;
+        private String anchorText;
+        private final String context;
+
+        public Link(String url, String anchorText, String context) {
+            this.url = url;
+            this.anchorText = anchorText == null ? "" : anchorText;
+            this.context = context == null ? "" : context;
+        }
+
+        /**
+         * Adds the anchor text of another link to the same URL.
+         */
+        void appendAnchorText(String more) {
+            if (more == null || more.isEmpty()) return;
+            anchorText = anchorText.isEmpty() ? more : anchorText + " " + more;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getAnchorText() {
+            return anchorText;
+        }
+
+        /** Clean text preceding the link on the page. */
+        public String getContext() {
+            return context;
+        }
+
+        @Override
+        public String toString() {
+            return url + " [" + anchorText + "]";
+        }
+    }
+
+    /**
+     * Parses a whole document.
+     *
+     * @param html    Raw HTML (null is treated as empty)
+     * @param baseUrl Page URL used to resolve links; null to skip link extraction
+     */
+    public static Page parse(String html, String baseUrl) {
+        return parse(html, baseUrl, LinkMode.PATH_ONLY);
+    }
+
+    /**
+     * Parses a whole document, normalizing links as the mode says.
+     */
+    public static Page parse(String html, String baseUrl, LinkMode linkMode) {
+        HtmlPageParser parser = new HtmlPageParser(baseUrl, linkMode);
+        if (html != null) parser.accept(html);
+        return parser.finish();
+    }
+
+    /**
+     * Parses the document read from the stream (read to the end, not closed).
+     */
+    public static Page parse(Reader html, String baseUrl) throws IOException {
+        HtmlPageParser parser = new HtmlPageParser(baseUrl);
+        parser.acceptAll(html);
+        return parser.finish();
+    }
+
+    private final String baseUrl;
+    private final LinkMode linkMode;
+    private final String baseOrigin;   // scheme://authority, null if links are not extracted
+    private final String baseHost;
+    private final String baseDirectory;
+
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder tag = new StringBuilder();
+    private final Map<String, Link> links = new LinkedHashMap<>();
+
+    private Mode mode = Mode.TEXT;
+    private boolean pendingSpace = false;
+    private int sentenceState = NO_SENTENCE_END;
+    private int[] sentenceStarts = new int[16];
+    private int sentenceCount = 0;
+    private String rawTextEnd;   // "</script>" or "</style>" while in RAW_TEXT
+    private int rawTextMatched;
+    private int commentDashes;
+
+    private StringBuilder title; // non-null while inside <title>
+    private String titleText = "";
+    private String description = "";
+
+    private String openLink;     // link of the <a> whose anchor text is being read
+    private int anchorStart;
+    private String anchorContext;
+
+    public HtmlPageParser(String baseUrl) {
+        this(baseUrl, LinkMode.PATH_ONLY);
+    }
+
+    public HtmlPageParser(String baseUrl, LinkMode linkMode) {
+        this.baseUrl = baseUrl;
+        this.linkMode = linkMode;
+        String origin = null;
+        String host = null;
+        String directory = null;
+        if (baseUrl != null) {
+            int schemeEnd = baseUrl.indexOf("://");
+            String scheme = schemeEnd > 0 ? baseUrl.substring(0, schemeEnd).toLowerCase(Locale.ROOT) : "";
+            if (scheme.equals("http") || scheme.equals("https")) {
+                int pathStart = indexOfAny(baseUrl, "/?#", schemeEnd + 3);
+                origin = baseUrl.substring(0, pathStart);
+                host = hostOf(baseUrl, schemeEnd + 3, pathStart);
+                int pathEnd = indexOfAny(baseUrl, "?#", pathStart);
+                String path = pathStart < pathEnd ? baseUrl.substring(pathStart, pathEnd) : "/";
+                directory = path.substring(0, path.lastIndexOf('/') + 1);
+            }
+        }
+        this.baseOrigin = host == null || host.isEmpty() ? null : origin;
+        this.baseHost = host;
+        this.baseDirectory = directory;
+    }
+
+    public void accept(String html) {
+        for (int i = 0, n = html.length(); i < n; i++) accept(html.charAt(i));
+    }
+
+    public void acceptAll(Reader html) throws IOException {
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = html.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) accept(buffer[i]);
+        }
+    }
+
+    public void accept(char c) {
+        switch (mode) {
+            case TEXT:
+                if (c == '<') {
+                    mode = Mode.TAG_OPEN;
+                } else {
+                    if (title != null && title.length() < MAX_TITLE_CHARS) title.append(c);
+                    emitText(c);
+                }
+                break;
+
+            case TAG_OPEN:
+                if (Character.isLetter(c) || c == '/' || c == '!' || c == '?') {
+                    mode = Mode.TAG;
+                    tag.setLength(0);
+                    tag.append(c);
+                } else {
+                    if (title != null) title.append('<');
+                    emitText('<');
+                    mode = Mode.TEXT;
+                    accept(c);
+                }
+                break;
+
+            case TAG:
+                if (c == '>') {
+                    endTag();
+                } else {
+                    if (tag.length() < MAX_TAG_CHARS) tag.append(c);
+                    if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                        mode = Mode.COMMENT;
+                        commentDashes = 0;
+                    }
+                }
+                break;
+
+            case COMMENT:
+                if (c == '>' && commentDashes >= 2) {
+                    mode = Mode.TEXT;
+                    emitText(' ');
+                }
+                commentDashes = c == '-' ? commentDashes + 1 : 0;
+                break;
+
+            case RAW_TEXT:
+                char lower = Character.toLowerCase(c);
+                if (lower == rawTextEnd.charAt(rawTextMatched)) {
+                    rawTextMatched++;
+                } else {
+                    rawTextMatched = lower == '<' ? 1 : 0;
+                }
+                if (rawTextMatched == rawTextEnd.length()) {
+                    mode = Mode.TEXT;
+                    emitText(' ');
+                }
+                break;
+        }
+    }
+
+    /**
+     * Ends the document and returns what was extracted.
+     */
+    public Page finish() {
+        closeAnchor();
+        if (title != null) endTitle();
+        return new Page(text.toString(), titleText, description, new ArrayList<>(links.values()),
+                Arrays.copyOf(sentenceStarts, sentenceCount));
+    }
+
+    /**
+     * Called for every character appended to the clean text (including the single
+     * separating spaces).
+     */
+    protected void onText(char c) {
+    }
+
+    /**
+     * Creates the object kept for a new link; subclasses may return their own Link type.
+     */
+    protected Link newLink(String url, String anchorText, String context) {
+        return new Link(url, anchorText, context);
+    }
+
+    /**
+     * Called once per distinct link, as soon as its first anchor is closed.
+     */
+    protected void onNewLink(Link link) {
+    }
+
+    private void endTag() {
+        mode = Mode.TEXT;
+        emitText(' ');
+
+        int end = tag.length() > 0 && tag.charAt(0) == '/' ? 1 : 0;
+        while (end < tag.length() && !Character.isWhitespace(tag.charAt(end)) && tag.charAt(end) != '/') end++;
+        String name = tag.substring(0, end).toLowerCase(Locale.ROOT);
+        boolean selfClosing = tag.length() > 0 && tag.charAt(tag.length() - 1) == '/';
+
+        if (title != null) endTitle();
+        if (BLOCK_TAGS.contains(name.startsWith("/") ? name.substring(1) : name)) sentenceState = SENTENCE_END;
+
+        switch (name) {
+            case "script":
+            case "style":
+                if (!selfClosing) {
+                    mode = Mode.RAW_TEXT;
+                    rawTextEnd = "</" + name + ">";
+                    rawTextMatched = 0;
+                }
+                break;
+            case "a":
+                closeAnchor();
+                String href = attribute(tag, "href");
+                if (href != null) openAnchor(href);
+                break;
+            case "/a":
+                closeAnchor();
+                break;
+            case "title":
+                if (titleText.isEmpty() && !selfClosing) title = new StringBuilder();
+                break;
+            case "meta":
+                if (description.isEmpty() && "description".equalsIgnoreCase(attribute(tag, "name"))) {
+                    String content = attribute(tag, "content");
+                    if (content != null) description = normalizeSpace(decodeEntities(content));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void endTitle() {
+        titleText = normalizeSpace(decodeEntities(title.toString()));
+        title = null;
+    }
+
+    private void openAnchor(String rawLink) {
+        String link = resolve(rawLink);
+        if (link == null || (linkMode == LinkMode.PATH_ONLY && link.equals(baseUrl))) return;
+
+        openLink = link;
+        anchorStart = text.length();
+        anchorContext = text.substring(Math.max(0, anchorStart - LINK_CONTEXT_CHARS));
+    }
+
+    private void closeAnchor() {
+        if (openLink == null) return;
+        String anchorText = text.substring(Math.min(anchorStart, text.length())).trim();
+
+        Link existing = links.get(openLink);
+        if (existing != null) {
+            existing.appendAnchorText(anchorText);
+        } else {
+            Link link = newLink(openLink, anchorText, anchorContext);
+            links.put(openLink, link);
+            onNewLink(link);
+        }
+        openLink = null;
+    }
+
+    /**
+     * Keep [a-zA-Z0-9] and CJK ideographs, turn everything else into single spaces.
+     * Sentence punctuation followed by a separator (not "iso.org") ends a sentence.
+     */
+    private void emitText(char c) {
+        boolean keep = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || (c >= '\u4e00' && c <= '\u9fa5');
+        if (!keep) {
+            pendingSpace = text.length() > 0;
+            if (c == '.' || c == '!' || c == '?' || c == '\u3002' || c == '\uff01' || c == '\uff1f') {
+                if (sentenceState == NO_SENTENCE_END) sentenceState = SENTENCE_PUNCTUATION;
+            } else if (sentenceState == SENTENCE_PUNCTUATION) {
+                sentenceState = SENTENCE_END;
+            }
+            return;
+        }
+        if (sentenceState == SENTENCE_END || (sentenceState == SENTENCE_PUNCTUATION && c >= '\u4e00')) {
+            markSentenceStart(text.length() + (pendingSpace ? 1 : 0));
+        }
+        sentenceState = NO_SENTENCE_END;
+        if (pendingSpace) {
+            text.append(' ');
+            onText(' ');
+            pendingSpace = false;
+        }
+        text.append(c);
+        onText(c);
+    }
+
+    private void markSentenceStart(int offset) {
+        if (offset == 0 || (sentenceCount > 0 && sentenceStarts[sentenceCount - 1] == offset)) return;
+        if (sentenceCount == sentenceStarts.length) sentenceStarts = Arrays.copyOf(sentenceStarts, sentenceCount * 2);
+        sentenceStarts[sentenceCount++] = offset;
+    }
+
+    /**
+     * Resolves an href against the page URL. Returns the absolute URL without query
+     * string (kept in KEEP_QUERY mode) or fragment, or null if it is not an http(s)
+     * link to the page's host. Absolute and root-relative links, the common cases,
+     * are handled without any URL parsing.
+     */
+    String resolve(String rawLink) {
+        if (baseOrigin == null) return null;
+        String link = rawLink.trim();
+        if (link.isEmpty() || link.charAt(0) == '#') return null;
+
+        link = link.substring(0, indexOfAny(link, "#", 0));
+        int queryStart = indexOfAny(link, "?", 0);
+        String query = linkMode == LinkMode.KEEP_QUERY ? link.substring(queryStart) : "";
+        link = link.substring(0, queryStart);
+        String path = resolvePath(link);
+        return path == null ? null : path + query;
+    }
+
+    /**
+     * resolve() for an href without query string or fragment.
+     */
+    private String resolvePath(String link) {
+        if (link.startsWith("//")) {
+            link = baseOrigin.substring(0, baseOrigin.indexOf(':') + 1) + link;
+        }
+
+        int colon = link.indexOf(':');
+        int slash = link.indexOf('/');
+        if (colon >= 0 && (slash < 0 || colon < slash)) {
+            // Absolute URL (or another scheme such as mailto: or javascript:)
+            String scheme = link.substring(0, colon).toLowerCase(Locale.ROOT);
+            if (!(scheme.equals("http") || scheme.equals("https")) || !link.startsWith("//", colon + 1)) return null;
+            int pathStart = indexOfAny(link, "/", colon + 3);
+            if (!baseHost.equalsIgnoreCase(hostOf(link, colon + 3, pathStart))) return null;
+            return pathStart < link.length() ? link.substring(0, pathStart) + removeDotSegments(link.substring(pathStart)) : link;
+        }
+        if (link.isEmpty()) return baseUrl.substring(0, indexOfAny(baseUrl, "?#", 0));
+        if (link.charAt(0) == '/') return baseOrigin + removeDotSegments(link);
+        return baseOrigin + removeDotSegments(baseDirectory + link);
+    }
+
+    /**
+     * Collapses "." and ".." path segments; paths without them are returned as is.
+     */
+    private static String removeDotSegments(String path) {
+        if (path.indexOf("/.") < 0) return path;
+        String[] segments = path.split("/", -1);
+        List<String> out = new ArrayList<>(segments.length);
+        for (int i = 1; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean last = i == segments.length - 1;
+            if (segment.equals(".")) {
+                if (last) out.add("");
+            } else if (segment.equals("..")) {
+                if (!out.isEmpty()) out.remove(out.size() - 1);
+                if (last) out.add("");
+            } else {
+                out.add(segment);
+            }
+        }
+        return "/" + String.join("/", out);
+    }
+
+    /**
+     * Host part of the authority between start and end: user info and port removed.
+     */
+    private static String hostOf(String url, int start, int end) {
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start) start = at + 1;
+        int port = url.indexOf(':', start);
+        if (port >= 0 && port < end && url.charAt(start) != '[') end = port;
+        return url.substring(start, end);
+    }
+
+    private static int indexOfAny(String s, String chars, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) return i;
+        }
+        return s.length();
+    }
+
+    /**
+     * Returns the value of the named attribute in a tag body, or null.
+     */
+    static String attribute(CharSequence tag, String name) {
+        int n = tag.length();
+        int len = name.length();
+        for (int i = 1; i + len <= n; i++) {
+            if (!Character.isWhitespace(tag.charAt(i - 1))) continue;
+            if (!regionMatchesIgnoreCase(tag, i, name)) continue;
+
+            int j = i + len;
+            while (j < n && Character.isWhitespace(tag.charAt(j))) j++;
+            if (j >= n || tag.charAt(j) != '=') continue;
+            j++;
+            while (j < n && Character.isWhitespace(tag.charAt(j))) j++;
+            if (j >= n) return null;
+
+            char quote = tag.charAt(j);
+            int start;
+            int end;
+            if (quote == '"' || quote == '\'') {
+                start = j + 1;
+                end = start;
+                while (end < n && tag.charAt(end) != quote) end++;
+                if (end >= n) return null;
+            } else {
+                start = j;
+                end = start;
+                while (end < n && !Character.isWhitespace(tag.charAt(end))) end++;
+            }
+            return tag.subSequence(start, end).toString().trim();
+        }
+        return null;
+    }
+
+    private static boolean regionMatchesIgnoreCase(CharSequence s, int offset, String word) {
+        for (int k = 0; k < word.length(); k++) {
+            if (Character.toLowerCase(s.charAt(offset + k)) != word.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the handful of entities common in titles and descriptions.
+     */
+    private static String decodeEntities(String s) {
+        if (s.indexOf('&') < 0) return s;
+        return s.replace("&quot;", "\"").replace("&#39;", "'").replace("&apos;", "'")
+                .replace("&lt;", "<").replace("&gt;", ">").replace("&nbsp;", " ").replace("&amp;", "&");
+    }
+
+    private static String normalizeSpace(String s) {
+        StringBuilder out = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else {
+                if (space) out.append(' ');
+                out.append(c);
+                space = false;
+            }
+        }
+        return out.toString();
+    }
+}
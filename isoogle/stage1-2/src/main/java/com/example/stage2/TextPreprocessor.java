@@ -11,6 +11,8 @@ package com.example.stage2;
  *   2. Removing ALL HTML tags
  *   3. Removing special characters
  *   4. Returning cleaned text
+ *
+ * The work is done by HtmlPageParser in a single pass.
  */
 public class TextPreprocessor {
 
@@ -24,21 +26,7 @@ public class TextPreprocessor {
 
         if (html == null) return "";
 
-        // 1. Remove <script>...</script>
-        html = html.replaceAll("(?is)<script.*?>.*?</script>", " ");
-
-        // 2. Remove <style>...</style>
-        html = html.replaceAll("(?is)<style.*?>.*?</style>", " ");
-
-        // 3. Remove all HTML tags <...>
-        html = html.replaceAll("<[^>]+>", " ");
-
-        // 4. Remove non-alphanumeric symbols except spaces
-        html = html.replaceAll("[^a-zA-Z0-9\\u4e00-\\u9fa5 ]", " ");
-
-        // 5. Normalize multiple spaces
-        html = html.replaceAll("\\s{2,}", " ");
-
-        return html.trim();
+        // All steps happen in one pass over the document
+        return HtmlPageParser.parse(html, null).getCleanText();
     }
 }
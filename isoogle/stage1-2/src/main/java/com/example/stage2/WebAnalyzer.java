@@ -3,10 +3,6 @@ package com.example.stage2;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * WebAnalyzer
@@ -58,14 +54,15 @@ public class WebAnalyzer {
             if (analyzeChildPages && !isYouTubeUrl(url) && pageResult.getRawHTML() != null) {
                 System.out.println("[INFO] Analyzing child pages with depth weighting...");
                 
-                // Extract links from root page
-                List<String> childUrls = extractLinks(pageResult.getRawHTML(), url);
+                // Links were collected while the root page was parsed
+                List<String> childUrls = pageResult.getLinks();
                 System.out.println("[INFO] Found " + childUrls.size() + " child links, analyzing up to " + MAX_CHILD_PAGES);
                 
                 int childCount = 0;
                 for (String childUrl : childUrls) {
                     if (childCount >= MAX_CHILD_PAGES) break;
                     if (isYouTubeUrl(childUrl)) continue;  // Skip YouTube links in children
+                    if (HostHealthTracker.isBlocked(childUrl)) continue;  // Skip failed URLs and unhealthy hosts
                     
                     System.out.println("  [CHILD " + (childCount + 1) + "] " + childUrl);
                     
@@ -123,9 +120,12 @@ public class WebAnalyzer {
             String rawHTML = HTMLFetcher.fetchHTML(url);
             pageResult.setRawHTML(rawHTML);
 
-            // Step 2: Clean HTML → plain text
-            cleanText = TextPreprocessor.cleanHTML(rawHTML);
+            // Step 2: Clean HTML → plain text, title and links in one pass
+            HtmlPageParser.Page page = HtmlPageParser.parse(rawHTML, url, HtmlPageParser.LinkMode.KEEP_QUERY);
+            cleanText = page.getCleanText();
             pageResult.setCleanText(cleanText);
+            pageResult.setTitle(page.getTitle());
+            pageResult.setLinks(page.getLinkUrls());
         }
 
         // Step 3: Count keywords
@@ -140,87 +140,10 @@ public class WebAnalyzer {
      *
      * @param html    Raw HTML content
      * @param baseUrl The base URL for resolving relative links
-     * @return List of absolute URLs found in the page
+     * @return List of absolute URLs found in the page (query strings kept), in page order
      */
     public static List<String> extractLinks(String html, String baseUrl) {
-        Set<String> links = new HashSet<>();
-        
-        // Extract base domain for filtering internal links
-        String baseDomain = extractDomain(baseUrl);
-        
-        // Pattern to find href attributes
-        Pattern pattern = Pattern.compile("href=[\"']([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(html);
-        
-        while (matcher.find()) {
-            String link = matcher.group(1);
-            
-            // Skip empty, anchor-only, javascript, and mailto links
-            if (link.isEmpty() || link.startsWith("#") || 
-                link.startsWith("javascript:") || link.startsWith("mailto:")) {
-                continue;
-            }
-            
-            // Convert relative URLs to absolute
-            String absoluteUrl = resolveUrl(link, baseUrl);
-            
-            // Only include links from the same domain (internal links)
-            if (absoluteUrl != null && extractDomain(absoluteUrl).equals(baseDomain)) {
-                links.add(absoluteUrl);
-            }
-        }
-        
-        return new ArrayList<>(links);
-    }
-    
-    /**
-     * Extract domain from URL.
-     */
-    private static String extractDomain(String url) {
-        try {
-            url = url.replaceFirst("^(https?://)", "");
-            int slashIndex = url.indexOf('/');
-            if (slashIndex > 0) {
-                url = url.substring(0, slashIndex);
-            }
-            return url.toLowerCase();
-        } catch (Exception e) {
-            return "";
-        }
-    }
-    
-    /**
-     * Resolve a relative URL to an absolute URL.
-     */
-    private static String resolveUrl(String link, String baseUrl) {
-        try {
-            if (link.startsWith("http://") || link.startsWith("https://")) {
-                return link;
-            }
-            
-            // Get base (protocol + domain)
-            int protocolEnd = baseUrl.indexOf("://");
-            if (protocolEnd < 0) return null;
-            
-            String protocol = baseUrl.substring(0, protocolEnd + 3);
-            String rest = baseUrl.substring(protocolEnd + 3);
-            int slashIndex = rest.indexOf('/');
-            String domain = slashIndex > 0 ? rest.substring(0, slashIndex) : rest;
-            
-            if (link.startsWith("//")) {
-                return protocol.replace("://", ":") + link;
-            } else if (link.startsWith("/")) {
-                return protocol + domain + link;
-            } else {
-                // Relative to current path
-                String basePath = slashIndex > 0 ? rest.substring(slashIndex) : "/";
-                int lastSlash = basePath.lastIndexOf('/');
-                String parentPath = lastSlash > 0 ? basePath.substring(0, lastSlash + 1) : "/";
-                return protocol + domain + parentPath + link;
-            }
-        } catch (Exception e) {
-            return null;
-        }
+        return HtmlPageParser.parse(html, baseUrl, HtmlPageParser.LinkMode.KEEP_QUERY).getLinkUrls();
     }
 
     /**
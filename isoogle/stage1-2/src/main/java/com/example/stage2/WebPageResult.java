@@ -19,6 +19,8 @@ public class WebPageResult {
     private String url;
     private String rawHTML;
     private String cleanText;
+    private String title = "";
+    private List<String> links = new ArrayList<>();  // same-domain links found on the page
     private Map<String, Integer> wordCountMap;
     private int score = 0;
     
@@ -63,6 +65,14 @@ public class WebPageResult {
         this.cleanText = cleanText;
     }
 
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public void setLinks(List<String> links) {
+        this.links = links;
+    }
+
     public void setWordCountMap(Map<String, Integer> map) {
         this.wordCountMap = map;
     }
@@ -101,6 +111,14 @@ public class WebPageResult {
         return cleanText;
     }
 
+    public String getTitle() {
+        return title;
+    }
+
+    public List<String> getLinks() {
+        return links;
+    }
+
     public Map<String, Integer> getWordCountMap() {
         return wordCountMap;
     }
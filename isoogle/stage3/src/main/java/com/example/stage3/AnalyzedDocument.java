@@ -0,0 +1,349 @@
+package com.example.stage3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * AnalyzedDocument
+ * The text of a page tokenized once: lowercase tokens (as TermDictionary ids) with
+ * their offsets, sentence boundaries and a term-count SparseVector. It is built in
+ * WebAnalyzer.analyzeSinglePage and handed to the scorers and keyword extractors, so
+ * they no longer split and regex-clean the same text on their own.
+ *
+ * Tokens come from the TextAnalysis chain (runs of letters and digits). Sentences come
+ * from the HTML (punctuation and block-level tags, see HtmlPageParser) or, for plain
+ * text, from '.', '!', '?' and line breaks between tokens.
+ *
+ * Terms that got an overflow id from a full TermDictionary are kept with the document,
+ * so getTerm resolves every id of the document's tokens.
+ */
+public class AnalyzedDocument {
+
+    public static final AnalyzedDocument EMPTY = new AnalyzedDocument("", new int[0], new int[0], new int[0], new int[] {0},
+            Collections.emptyMap());
+
+    private static final String PAGE_SEPARATOR = "\n\n";
+
+    private final String text;
+    private final int[] termIds;          // TermDictionary id of each lowercased token
+    private final int[] offsets;          // start of each token in text
+    private final int[] ends;             // end (exclusive) of each token in text
+    private final int[] sentenceStarts;   // index of the first token of each sentence
+    private final Map<Integer, String> overflowTerms;  // terms of the tokens with an overflow id
+
+    private SparseVector termVector;
+    private SentenceIndex sentenceIndex;
+    private String lowerText;
+    private Boolean nonLatin;
+
+    private AnalyzedDocument(String text, int[] termIds, int[] offsets, int[] ends, int[] sentenceStarts,
+                             Map<Integer, String> overflowTerms) {
+        this.text = text;
+        this.termIds = termIds;
+        this.offsets = offsets;
+        this.ends = ends;
+        this.sentenceStarts = sentenceStarts;
+        this.overflowTerms = overflowTerms;
+    }
+
+    /**
+     * Analyzes plain text; sentences end at '.', '!', '?' and line breaks.
+     */
+    public static AnalyzedDocument of(String text) {
+        return analyze(text == null ? "" : text, null);
+    }
+
+    /**
+     * Analyzes clean text whose sentence boundaries are already known.
+     *
+     * @param sentenceStarts ascending text offsets where a new sentence starts
+     */
+    public static AnalyzedDocument of(String text, int[] sentenceStarts) {
+        return analyze(text == null ? "" : text, sentenceStarts == null ? new int[0] : sentenceStarts);
+    }
+
+    /**
+     * Joins the documents of several pages; each page starts a new sentence.
+     */
+    public static AnalyzedDocument concat(List<AnalyzedDocument> documents) {
+        if (documents.size() == 1) return documents.get(0);
+
+        StringBuilder text = new StringBuilder();
+        int tokenCount = 0;
+        int sentenceCount = 0;
+        for (AnalyzedDocument doc : documents) {
+            tokenCount += doc.termIds.length;
+            sentenceCount += doc.sentenceStarts.length;
+        }
+
+        int[] termIds = new int[tokenCount];
+        int[] offsets = new int[tokenCount];
+        int[] ends = new int[tokenCount];
+        int[] sentences = new int[Math.max(1, sentenceCount)];
+        Map<Integer, String> overflowTerms = Collections.emptyMap();
+        int t = 0;
+        int s = 0;
+        for (int d = 0; d < documents.size(); d++) {
+            AnalyzedDocument doc = documents.get(d);
+            if (d > 0) text.append(PAGE_SEPARATOR);
+            int base = text.length();
+            text.append(doc.text);
+            for (int start : doc.sentenceStarts) {
+                int at = t + start;
+                if (s == 0 || sentences[s - 1] != at) sentences[s++] = at;
+            }
+            for (int i = 0; i < doc.termIds.length; i++) {
+                termIds[t] = doc.termIds[i];
+                offsets[t] = base + doc.offsets[i];
+                ends[t] = base + doc.ends[i];
+                t++;
+            }
+            if (!doc.overflowTerms.isEmpty()) {
+                if (overflowTerms.isEmpty()) overflowTerms = new HashMap<>();
+                overflowTerms.putAll(doc.overflowTerms);
+            }
+        }
+        return new AnalyzedDocument(text.toString(), termIds, offsets, ends, Arrays.copyOf(sentences, Math.max(1, s)),
+                overflowTerms);
+    }
+
+    private static AnalyzedDocument analyze(String text, int[] knownSentenceStarts) {
+        Tokens tokens = new Tokens(text, knownSentenceStarts);
+        TextAnalysis.analyze(text, tokens);
+        return tokens.build();
+    }
+
+    /**
+     * Collects the tokens of the analysis chain with their offsets and sentences.
+     */
+    private static final class Tokens implements TextAnalysis.TokenConsumer {
+        private final String text;
+        private final int[] knownSentenceStarts;   // null: find sentence ends in the text
+        private final TermDictionary.LocalCache dictionary = new TermDictionary.LocalCache();
+
+        private int[] termIds;
+        private int[] offsets;
+        private int[] ends;
+        private int count = 0;
+        private final List<Integer> sentences = new ArrayList<>();
+        private Map<Integer, String> overflowTerms = Collections.emptyMap();
+        private int nextKnown = 0;
+
+        Tokens(String text, int[] knownSentenceStarts) {
+            this.text = text;
+            this.knownSentenceStarts = knownSentenceStarts;
+            int capacity = Math.max(16, text.length() / 6);
+            termIds = new int[capacity];
+            offsets = new int[capacity];
+            ends = new int[capacity];
+            sentences.add(0);
+        }
+
+        @Override
+        public void accept(char[] buffer, int length, int start, int end) {
+            boolean sentenceEnd = false;
+            if (knownSentenceStarts != null) {
+                while (nextKnown < knownSentenceStarts.length && knownSentenceStarts[nextKnown] <= start) {
+                    nextKnown++;
+                    sentenceEnd = true;
+                }
+            } else if (count > 0) {
+                for (int i = ends[count - 1]; i < start && !sentenceEnd; i++) {
+                    char c = text.charAt(i);
+                    sentenceEnd = c == '.' || c == '!' || c == '?' || c == '\n'
+                        || c == '\u3002' || c == '\uff01' || c == '\uff1f';  // ideographic full stop, fullwidth ! and ?
+                }
+            }
+            if (sentenceEnd && count > 0 && sentences.get(sentences.size() - 1) != count) {
+                sentences.add(count);
+            }
+
+            if (count == termIds.length) {
+                termIds = Arrays.copyOf(termIds, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            int id = dictionary.id(buffer, length);
+            if (id < 0) {
+                if (overflowTerms.isEmpty()) overflowTerms = new HashMap<>();
+                overflowTerms.computeIfAbsent(id, k -> new String(buffer, 0, length));
+            }
+            termIds[count] = id;
+            offsets[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        AnalyzedDocument build() {
+            return new AnalyzedDocument(text, Arrays.copyOf(termIds, count), Arrays.copyOf(offsets, count),
+                    Arrays.copyOf(ends, count), toArray(sentences), overflowTerms);
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** The text lowercased, computed on first use. */
+    public String getLowerText() {
+        if (lowerText == null) lowerText = text.toLowerCase(Locale.ROOT);
+        return lowerText;
+    }
+
+    public int getTokenCount() {
+        return termIds.length;
+    }
+
+    /** The i-th token, lowercased. */
+    public String getToken(int i) {
+        return getTerm(termIds[i]);
+    }
+
+    /** TermDictionary id of the i-th token. */
+    public int getTermId(int i) {
+        return termIds[i];
+    }
+
+    /**
+     * The term with the given id, including overflow ids of this document's tokens.
+     */
+    public String getTerm(int termId) {
+        return termId >= 0 ? TermDictionary.term(termId) : overflowTerms.get(termId);
+    }
+
+    /** Offset of the i-th token in the text. */
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getSentenceCount() {
+        return termIds.length == 0 ? 0 : sentenceStarts.length;
+    }
+
+    /** Index of the first token of the sentence. */
+    public int getSentenceStart(int sentence) {
+        return sentenceStarts[sentence];
+    }
+
+    /** Index after the last token of the sentence. */
+    public int getSentenceEnd(int sentence) {
+        return sentence + 1 < sentenceStarts.length ? sentenceStarts[sentence + 1] : termIds.length;
+    }
+
+    /**
+     * Lowercased text of the sentence, from its first to its last token.
+     */
+    public String getSentenceText(int sentence) {
+        int first = getSentenceStart(sentence);
+        int last = getSentenceEnd(sentence) - 1;
+        if (last < first) return "";
+        return text.substring(offsets[first], ends[last]).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Number of occurrences of each token, computed on first use.
+     */
+    public SparseVector getTermVector() {
+        if (termVector == null) termVector = SparseVector.of(termIds, termIds.length);
+        return termVector;
+    }
+
+    /**
+     * Ids of the sentences in which the term occurs, ascending. The positional index
+     * behind it is built on first use, in one pass over the tokens.
+     */
+    public int[] getSentencesContaining(int termId) {
+        SentenceIndex index = sentenceIndex;
+        if (index == null) sentenceIndex = index = new SentenceIndex(this);
+        return index.postings(termId);
+    }
+
+    /**
+     * True if more than 30% of the text is outside the Latin blocks.
+     */
+    public boolean isNonLatin() {
+        if (nonLatin == null) nonLatin = isNonLatin(0, text.length());
+        return nonLatin;
+    }
+
+    /**
+     * Same test as isNonLatin(), over one sentence only.
+     */
+    public boolean isNonLatin(int sentence) {
+        int first = getSentenceStart(sentence);
+        int last = getSentenceEnd(sentence) - 1;
+        if (last < first) return false;
+        return isNonLatin(offsets[first], ends[last]);
+    }
+
+    private boolean isNonLatin(int from, int to) {
+        if (to <= from) return false;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) > 0x024F) count++;  // beyond Latin Extended-B
+        }
+        return count > (to - from) * 0.3;
+    }
+
+    /**
+     * Term -> sentence ids, stored as one sorted run of sentence ids per term.
+     */
+    private static final class SentenceIndex {
+        private static final int[] NONE = new int[0];
+
+        private final int[] terms;       // distinct term ids, ascending
+        private final int[] starts;      // postings of terms[i] are sentences[starts[i]..starts[i + 1])
+        private final int[] sentences;
+
+        SentenceIndex(AnalyzedDocument doc) {
+            // (term, sentence) pairs packed into longs; sorting groups them by term
+            long[] pairs = new long[doc.termIds.length];
+            int n = 0;
+            for (int s = 0; s < doc.getSentenceCount(); s++) {
+                for (int i = doc.getSentenceStart(s); i < doc.getSentenceEnd(s); i++) {
+                    pairs[n++] = ((long) doc.termIds[i] << 32) | s;
+                }
+            }
+            Arrays.sort(pairs, 0, n);
+
+            int[] terms = new int[n];
+            int[] starts = new int[n + 1];
+            int[] sentences = new int[n];
+            int termCount = 0;
+            int postingCount = 0;
+            long previous = -1;
+            for (int i = 0; i < n; i++) {
+                if (pairs[i] == previous) continue;  // term repeated within a sentence
+                int term = (int) (pairs[i] >>> 32);
+                if (termCount == 0 || terms[termCount - 1] != term) {
+                    terms[termCount] = term;
+                    starts[termCount] = postingCount;
+                    termCount++;
+                }
+                sentences[postingCount++] = (int) pairs[i];
+                previous = pairs[i];
+            }
+            starts[termCount] = postingCount;
+
+            this.terms = Arrays.copyOf(terms, termCount);
+            this.starts = Arrays.copyOf(starts, termCount + 1);
+            this.sentences = Arrays.copyOf(sentences, postingCount);
+        }
+
+        int[] postings(int termId) {
+            int i = Arrays.binarySearch(terms, termId);
+            return i < 0 ? NONE : Arrays.copyOfRange(sentences, starts[i], starts[i + 1]);
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+}
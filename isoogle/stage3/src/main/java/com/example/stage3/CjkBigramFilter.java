@@ -0,0 +1,127 @@
+package com.example.stage3;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CjkBigramFilter
+ * Splits the Han, Hiragana and Katakana parts of a token into overlapping bigrams.
+ * Chinese and Japanese text has no spaces, so without this a letter run is a whole
+ * clause; a run of six Han characters now becomes five overlapping two-character
+ * tokens. A lone CJK character stays a unigram, and other parts of the token (the
+ * "iso" of "iso" followed by Han characters) are passed on whole.
+ *
+ * Offsets of the pieces point into the original text as long as the token kept its
+ * length through the earlier filters.
+ */
+final class CjkBigramFilter extends TokenFilter {
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+    // Pieces of the current token still to emit, as [start, end) char ranges of buffer
+    private char[] buffer = new char[64];
+    private int[] pieceStarts = new int[32];
+    private int[] pieceEnds = new int[32];
+    private int pieceCount = 0;
+    private int nextPiece = 0;
+    private int tokenStart;
+    private int tokenEnd;
+
+    CjkBigramFilter(TokenStream input) {
+        super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (nextPiece < pieceCount) {
+            emitPiece();
+            return true;
+        }
+        if (!input.incrementToken()) return false;
+
+        char[] term = termAtt.buffer();
+        int length = termAtt.length();
+        if (!containsCjk(term, length)) return true;
+
+        split(term, length);
+        emitPiece();
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        pieceCount = 0;
+        nextPiece = 0;
+    }
+
+    private void split(char[] term, int length) {
+        if (buffer.length < length) buffer = new char[length];
+        System.arraycopy(term, 0, buffer, 0, length);
+        tokenStart = offsetAtt.startOffset();
+        tokenEnd = offsetAtt.endOffset();
+        pieceCount = 0;
+        nextPiece = 0;
+
+        int i = 0;
+        while (i < length) {
+            int cp = Character.codePointAt(buffer, i, length);
+            int next = i + Character.charCount(cp);
+            if (!TextAnalysis.isCjk(cp)) {
+                // Non-CJK stretch: one piece
+                int end = next;
+                while (end < length && !TextAnalysis.isCjk(Character.codePointAt(buffer, end, length))) {
+                    end += Character.charCount(Character.codePointAt(buffer, end, length));
+                }
+                addPiece(i, end);
+                i = end;
+                continue;
+            }
+
+            // CJK stretch: overlapping bigrams, or the character alone if it stands by itself
+            boolean single = true;
+            while (next < length) {
+                int cp2 = Character.codePointAt(buffer, next, length);
+                if (!TextAnalysis.isCjk(cp2)) break;
+                int end = next + Character.charCount(cp2);
+                addPiece(i, end);
+                single = false;
+                i = next;
+                next = end;
+            }
+            if (single) addPiece(i, next);
+            i = next;
+        }
+    }
+
+    private void addPiece(int start, int end) {
+        if (pieceCount == pieceStarts.length) {
+            pieceStarts = Arrays.copyOf(pieceStarts, pieceCount * 2);
+            pieceEnds = Arrays.copyOf(pieceEnds, pieceCount * 2);
+        }
+        pieceStarts[pieceCount] = start;
+        pieceEnds[pieceCount] = end;
+        pieceCount++;
+    }
+
+    private void emitPiece() {
+        int start = pieceStarts[nextPiece];
+        int end = pieceEnds[nextPiece];
+        nextPiece++;
+        termAtt.copyBuffer(buffer, start, end - start);
+        offsetAtt.setOffset(Math.min(tokenStart + start, tokenEnd), Math.min(tokenStart + end, tokenEnd));
+    }
+
+    private static boolean containsCjk(char[] term, int length) {
+        for (int i = 0; i < length; i++) {
+            if (term[i] >= '\u3040' && TextAnalysis.isCjk(Character.codePointAt(term, i, length))) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.stage3;
+
+import java.io.IOException;
+
+/**
+ * CseQuotaExceededException
+ * Thrown when a CSE call is refused by CseQuotaGovernor and no cached results can be served.
+ */
+public class CseQuotaExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSec;
+
+    public CseQuotaExceededException(String message, long retryAfterSec) {
+        super(message);
+        this.retryAfterSec = retryAfterSec;
+    }
+
+    /** Seconds after which a retry may succeed. */
+    public long getRetryAfterSec() {
+        return retryAfterSec;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.stage3;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CseQuotaGovernor
+ * Rations Google CSE calls with two token buckets so a traffic spike cannot use up
+ * the day's quota.
+ *
+ * The per-second bucket smooths bursts: a caller waits briefly for a token rather
+ * than being refused. The daily bucket mirrors the CSE quota and refills at midnight
+ * in the quota's time zone (Google resets at midnight Pacific time). Interactive
+ * calls may spend the whole daily budget; background calls (query expansion, later
+ * iterations) stop once only the reserved share is left, and never wait for the
+ * per-second bucket. Calls are not rationed while replaying a fetch archive.
+ *
+ * The priority of the calls made by the current thread is set with runAs().
+ *
+ * Settings (system properties):
+ *   isoogle.cse.qps                     calls per second (default 5)
+ *   isoogle.cse.dailyQuota              calls per day (default 100, the free tier)
+ *   isoogle.cse.backgroundReservePct    share of the daily quota kept for interactive calls (default 20)
+ *   isoogle.cse.maxWaitMs               how long an interactive call waits for a per-second token (default 2000)
+ *   isoogle.cse.quotaZone               time zone of the daily reset (default America/Los_Angeles)
+ */
+public class CseQuotaGovernor {
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    private static final double QPS = Double.parseDouble(System.getProperty("isoogle.cse.qps", "5"));
+    private static final long DAILY_QUOTA = Long.getLong("isoogle.cse.dailyQuota", 100);
+    private static final double BACKGROUND_RESERVE_PCT = Double.parseDouble(System.getProperty("isoogle.cse.backgroundReservePct", "20"));
+    private static final long MAX_WAIT_MS = Long.getLong("isoogle.cse.maxWaitMs", 2000);
+    private static final ZoneId QUOTA_ZONE = ZoneId.of(System.getProperty("isoogle.cse.quotaZone", "America/Los_Angeles"));
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    // per-second bucket
+    private static double secondTokens = Math.max(1, QPS);
+    private static long lastRefillNanos = System.nanoTime();
+
+    // daily bucket
+    private static long dailyUsed = 0;
+    private static LocalDate quotaDay = LocalDate.now(QUOTA_ZONE);
+
+    private static final AtomicLong GRANTED_INTERACTIVE = new AtomicLong();
+    private static final AtomicLong GRANTED_BACKGROUND = new AtomicLong();
+    private static final AtomicLong DENIED_INTERACTIVE = new AtomicLong();
+    private static final AtomicLong DENIED_BACKGROUND = new AtomicLong();
+    private static final AtomicLong SERVED_STALE = new AtomicLong();
+
+    /**
+     * Runs the task with the given priority for the CSE calls it makes on this thread.
+     */
+    public static <T> T runAs(Priority priority, Callable<T> task) throws Exception {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return task.call();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    public static Priority currentPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Takes quota for the given number of CSE calls at the current thread's priority.
+     *
+     * @throws CseQuotaExceededException if the daily budget is used up for this priority,
+     *         or no per-second token became available in time
+     */
+    static void acquire(int calls) throws CseQuotaExceededException, InterruptedException {
+        if (FetchArchive.isReplaying()) return;
+        Priority priority = PRIORITY.get();
+        long deadline = System.nanoTime() + (priority == Priority.INTERACTIVE ? MAX_WAIT_MS : 0) * 1_000_000;
+
+        while (true) {
+            long waitMs;
+            synchronized (CseQuotaGovernor.class) {
+                rollDay();
+                if (dailyUsed + calls > dailyLimit(priority)) {
+                    deny(priority);
+                    throw new CseQuotaExceededException("Daily CSE quota exhausted for " + priority.name().toLowerCase()
+                            + " requests (" + dailyUsed + "/" + DAILY_QUOTA + " used)", secondsUntilReset());
+                }
+                refill();
+                if (secondTokens >= calls || (calls > QPS && secondTokens >= QPS)) {
+                    secondTokens -= calls;
+                    dailyUsed += calls;
+                    (priority == Priority.INTERACTIVE ? GRANTED_INTERACTIVE : GRANTED_BACKGROUND).addAndGet(calls);
+                    return;
+                }
+                waitMs = (long) Math.ceil((Math.min(calls, QPS) - secondTokens) / QPS * 1000);
+            }
+
+            if (System.nanoTime() + waitMs * 1_000_000 > deadline) {
+                deny(priority);
+                throw new CseQuotaExceededException("CSE rate limit of " + QPS + " calls/s reached", 1);
+            }
+            Thread.sleep(Math.max(1, waitMs));
+        }
+    }
+
+    static void recordStaleServed() {
+        SERVED_STALE.incrementAndGet();
+    }
+
+    /**
+     * Live quota state, e.g. for a status endpoint.
+     */
+    public static synchronized Map<String, Object> snapshot() {
+        rollDay();
+        refill();
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("dailyQuota", DAILY_QUOTA);
+        state.put("dailyUsed", dailyUsed);
+        state.put("dailyRemaining", Math.max(0, DAILY_QUOTA - dailyUsed));
+        state.put("backgroundRemaining", Math.max(0, dailyLimit(Priority.BACKGROUND) - dailyUsed));
+        state.put("qps", QPS);
+        state.put("secondTokens", Math.floor(secondTokens * 100) / 100);
+        state.put("resetsInSec", secondsUntilReset());
+        state.put("grantedInteractive", GRANTED_INTERACTIVE.get());
+        state.put("grantedBackground", GRANTED_BACKGROUND.get());
+        state.put("deniedInteractive", DENIED_INTERACTIVE.get());
+        state.put("deniedBackground", DENIED_BACKGROUND.get());
+        state.put("servedStale", SERVED_STALE.get());
+        return state;
+    }
+
+    private static long dailyLimit(Priority priority) {
+        if (priority == Priority.INTERACTIVE) return DAILY_QUOTA;
+        return (long) Math.floor(DAILY_QUOTA * (1 - BACKGROUND_RESERVE_PCT / 100.0));
+    }
+
+    private static void deny(Priority priority) {
+        (priority == Priority.INTERACTIVE ? DENIED_INTERACTIVE : DENIED_BACKGROUND).incrementAndGet();
+    }
+
+    private static void refill() {
+        long now = System.nanoTime();
+        secondTokens = Math.min(Math.max(1, QPS), secondTokens + (now - lastRefillNanos) / 1e9 * QPS);
+        lastRefillNanos = now;
+    }
+
+    private static void rollDay() {
+        LocalDate today = LocalDate.now(QUOTA_ZONE);
+        if (!today.equals(quotaDay)) {
+            quotaDay = today;
+            dailyUsed = 0;
+        }
+    }
+
+    private static long secondsUntilReset() {
+        ZonedDateTime now = ZonedDateTime.now(QUOTA_ZONE);
+        ZonedDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay(QUOTA_ZONE);
+        return Math.max(1, java.time.Duration.between(now, midnight).getSeconds());
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.stage3;
+
+/**
+ * CseResult
+ * One item of a Google Custom Search response, in Google's ranking order.
+ */
+public class CseResult {
+
+    private final int rank;
+    private final String title;
+    private final String link;
+    private final String snippet;
+    private final String displayLink;
+
+    public CseResult(int rank, String title, String link, String snippet, String displayLink) {
+        this.rank = rank;
+        this.title = title;
+        this.link = link;
+        this.snippet = snippet == null ? "" : snippet;
+        this.displayLink = displayLink == null ? "" : displayLink;
+    }
+
+    /** 1-based position in the CSE results. */
+    public int getRank() {
+        return rank;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getLink() {
+        return link;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public String getDisplayLink() {
+        return displayLink;
+    }
+
+    @Override
+    public String toString() {
+        return rank + ". " + title + " (" + link + ")";
+    }
+}
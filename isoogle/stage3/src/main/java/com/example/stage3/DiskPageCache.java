@@ -0,0 +1,339 @@
+package com.example.stage3;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * DiskPageCache
+ * Persistent cache of fetched pages keyed by canonical URL.
+ *
+ * Each entry keeps the body together with its ETag / Last-Modified validators.
+ * Fresh entries are served without any network I/O; stale entries are revalidated
+ * with If-None-Match / If-Modified-Since so that a 304 skips the body transfer.
+ * The cache is capped in total bytes and evicts the least recently used entries.
+ *
+ * Settings (system properties):
+ *   isoogle.cache.enabled   enable the disk cache (default true; always off while a FetchArchive records or replays)
+ *   isoogle.cache.dir       cache directory (default ~/.isoogle-cache/pages, independent of the working directory)
+ *   isoogle.cache.maxBytes  size cap of all entries on disk (default 256 MB)
+ *   isoogle.cache.ttlSec    freshness when the server sends no max-age (default 3600)
+ */
+public class DiskPageCache {
+
+    // Recording and replaying runs must not depend on pages cached by earlier runs
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("isoogle.cache.enabled", "true"))
+            && !FetchArchive.isActive();
+    private static final Path DIR = Paths.get(System.getProperty("isoogle.cache.dir",
+            Paths.get(System.getProperty("user.home"), ".isoogle-cache", "pages").toString()));
+    private static final long MAX_BYTES = Long.getLong("isoogle.cache.maxBytes", 256L * 1024 * 1024);
+    private static final long DEFAULT_TTL_MS = Long.getLong("isoogle.cache.ttlSec", 3600) * 1000;
+    private static final long MAX_TTL_MS = 7L * 24 * 3600 * 1000;  // never trust max-age beyond a week
+    private static final long MAX_ENTRY_BYTES = MAX_BYTES / 8;      // keep one page from flushing the cache
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".page";
+    private static final Pattern MAX_AGE = Pattern.compile("(?:s-maxage|max-age)\\s*=\\s*(\\d+)");
+
+    // key -> size on disk, in access order (eldest = least recently used)
+    private static final LinkedHashMap<String, Long> INDEX = new LinkedHashMap<>(256, 0.75f, true);
+    private static long totalBytes = 0;
+    private static boolean loaded = false;
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong REVALIDATED = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /**
+     * A cached page together with its validators.
+     */
+    public static class CachedPage {
+        private final String url;
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final long expiresAt;
+
+        CachedPage(String url, String body, String etag, String lastModified, long expiresAt) {
+            this.url = url;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        /**
+         * Request headers that turn the next fetch into a conditional request.
+         */
+        public Map<String, String> conditionalHeaders() {
+            Map<String, String> headers = new LinkedHashMap<>();
+            if (etag != null) headers.put("If-None-Match", etag);
+            if (lastModified != null) headers.put("If-Modified-Since", lastModified);
+            return headers;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the cached page for the URL (fresh or stale), or null if not cached.
+     */
+    public static CachedPage lookup(String url) {
+        if (!ENABLED) return null;
+        String key = keyFor(url);
+        synchronized (DiskPageCache.class) {
+            ensureLoaded();
+            if (!INDEX.containsKey(key)) {
+                MISSES.incrementAndGet();
+                return null;
+            }
+            INDEX.get(key);  // mark as recently used
+        }
+
+        Path file = DIR.resolve(key + SUFFIX);
+        try {
+            CachedPage page = read(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            if (page.isFresh()) HITS.incrementAndGet();
+            return page;
+        } catch (IOException e) {
+            remove(key);
+            MISSES.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a successful response. Responses marked no-store, and oversized bodies, are skipped.
+     */
+    public static void store(String url, FetchResponse response) {
+        // A body cut off at the size limit must not be served or revalidated as the whole page
+        if (!ENABLED || !response.isSuccess() || response.getBody() == null || response.isTruncated()) return;
+        long ttl = freshnessMs(response);
+        if (ttl < 0) return;
+
+        CachedPage page = new CachedPage(canonicalize(url), response.getBody(),
+                response.header("ETag"), response.header("Last-Modified"), System.currentTimeMillis() + ttl);
+        write(page);
+    }
+
+    /**
+     * Extends a stale entry after the server answered 304 Not Modified.
+     */
+    public static CachedPage revalidated(CachedPage cached, FetchResponse notModified) {
+        REVALIDATED.incrementAndGet();
+        long ttl = Math.max(0, freshnessMs(notModified));
+        String etag = notModified.header("ETag") != null ? notModified.header("ETag") : cached.etag;
+        String lastModified = notModified.header("Last-Modified") != null ? notModified.header("Last-Modified") : cached.lastModified;
+
+        CachedPage page = new CachedPage(cached.url, cached.body, etag, lastModified, System.currentTimeMillis() + ttl);
+        if (ENABLED) write(page);
+        return page;
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getRevalidated() {
+        return REVALIDATED.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    public static synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Canonical form of a URL: lowercase scheme and host, no default port, no fragment.
+     */
+    public static String canonicalize(String url) {
+        try {
+            URI uri = new URI(url.trim()).normalize();
+            String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) port = -1;
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+            return scheme + "://" + host + (port == -1 ? "" : ":" + port) + path + query;
+        } catch (Exception e) {
+            return url.trim();
+        }
+    }
+
+    /**
+     * Freshness lifetime from Cache-Control; -1 means the response must not be stored.
+     */
+    private static long freshnessMs(FetchResponse response) {
+        String cacheControl = response.header("Cache-Control");
+        if (cacheControl == null) return DEFAULT_TTL_MS;
+
+        String cc = cacheControl.toLowerCase(Locale.ROOT);
+        if (cc.contains("no-store")) return -1;
+        if (cc.contains("no-cache")) return 0;
+        Matcher m = MAX_AGE.matcher(cc);
+        if (m.find()) {
+            try {
+                return Math.min(MAX_TTL_MS, Long.parseLong(m.group(1)) * 1000);
+            } catch (NumberFormatException e) {
+                return DEFAULT_TTL_MS;
+            }
+        }
+        return DEFAULT_TTL_MS;
+    }
+
+    private static void write(CachedPage page) {
+        String key = keyFor(page.url);
+        Path file = DIR.resolve(key + SUFFIX);
+        try {
+            Files.createDirectories(DIR);
+            Path tmp = Files.createTempFile(DIR, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(page.url);
+                out.writeUTF(page.etag == null ? "" : page.etag);
+                out.writeUTF(page.lastModified == null ? "" : page.lastModified);
+                out.writeLong(page.expiresAt);
+                byte[] body = page.body.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(body.length);
+                out.write(body);
+            }
+
+            long size = Files.size(tmp);
+            if (size > MAX_ENTRY_BYTES) {
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (DiskPageCache.class) {
+                ensureLoaded();
+                Long previous = INDEX.put(key, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evictIfNeeded();
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] Unable to write page cache entry for: " + page.url);
+        }
+    }
+
+    private static CachedPage read(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file));
+             DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != FORMAT_VERSION) throw new IOException("Unknown cache format: " + file);
+            String url = data.readUTF();
+            String etag = data.readUTF();
+            String lastModified = data.readUTF();
+            long expiresAt = data.readLong();
+            byte[] body = new byte[data.readInt()];
+            data.readFully(body);
+            return new CachedPage(url, new String(body, StandardCharsets.UTF_8),
+                    etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, expiresAt);
+        }
+    }
+
+    private static synchronized void remove(String key) {
+        Long size = INDEX.remove(key);
+        if (size != null) totalBytes -= size;
+        try {
+            Files.deleteIfExists(DIR.resolve(key + SUFFIX));
+        } catch (IOException ignore) {}
+    }
+
+    /**
+     * Drops least recently used entries until the cache fits MAX_BYTES. Caller holds the class lock.
+     */
+    private static void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> it = INDEX.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(DIR.resolve(eldest.getKey() + SUFFIX));
+            } catch (IOException ignore) {}
+        }
+    }
+
+    /**
+     * Rebuilds the LRU index from the cache directory, using file modification time as recency.
+     * Caller holds the class lock.
+     */
+    private static void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+
+        File[] files = DIR.toFile().listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+
+        List<File> sorted = new ArrayList<>(List.of(files));
+        sorted.sort(Comparator.comparingLong(File::lastModified));
+        for (File f : sorted) {
+            String name = f.getName();
+            INDEX.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+            totalBytes += f.length();
+        }
+        evictIfNeeded();
+    }
+
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(canonicalize(url).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) sb.append(String.format("%02x", hash[i]));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.stage3;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * FetchArchive
+ * Append-only archive of HTTP exchanges for reproducible, offline performance runs.
+ *
+ * In record mode every exchange made through HttpFetchClient (CSE queries and page
+ * fetches) is appended with its status, headers, decoded body, timings and outcome
+ * (timeouts and skipped content included). In replay mode HttpFetchClient answers
+ * from the archive only and never touches the network; the n-th request for a URL
+ * gets the n-th recorded exchange, the last one repeating. Recorded latency can be
+ * simulated, scaled by a factor. Both modes bypass the disk page cache so that a
+ * run does not depend on what earlier runs left behind.
+ *
+ * API keys are never written: key and cx query parameters are redacted from the
+ * recorded URLs, and replay matches on the redacted form, so it runs without
+ * credentials.
+ *
+ * Settings (system properties):
+ *   isoogle.archive.mode          off, record or replay (default off)
+ *   isoogle.archive.file          archive file (default .isoogle-cache/fetch-archive.bin)
+ *   isoogle.archive.latencyScale  replay delay as a multiple of the recorded timings (default 0 = none)
+ */
+public class FetchArchive {
+
+    public enum Mode { OFF, RECORD, REPLAY }
+
+    enum Outcome { RESPONSE, TIMEOUT, SKIPPED, ERROR }
+
+    private static final Mode MODE = parseMode(System.getProperty("isoogle.archive.mode", "off"));
+    private static final Path FILE = Paths.get(System.getProperty("isoogle.archive.file", ".isoogle-cache/fetch-archive.bin"));
+    private static final double LATENCY_SCALE = Double.parseDouble(System.getProperty("isoogle.archive.latencyScale", "0"));
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Pattern SECRET_PARAMS = Pattern.compile("([?&](?:key|cx)=)[^&]*");
+
+    // redacted URL -> recorded exchanges in recording order
+    private static Map<String, List<Entry>> replayIndex;
+    private static final Map<String, Integer> replayPositions = new HashMap<>();
+    private static DataOutputStream out;
+
+    private static final AtomicLong RECORDED = new AtomicLong();
+    private static final AtomicLong REPLAYED = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    /**
+     * One archived exchange.
+     */
+    static class Entry {
+        final String url;
+        final Outcome outcome;
+        final String message;
+        final int status;
+        final HttpHeaders headers;
+        final String body;
+        final long headersMs;
+        final long totalMs;
+        final long wireBytes;
+        final long decodedBytes;
+        final boolean truncated;
+
+        Entry(String url, Outcome outcome, String message, int status, HttpHeaders headers, String body,
+              long headersMs, long totalMs, long wireBytes, long decodedBytes, boolean truncated) {
+            this.url = url;
+            this.outcome = outcome;
+            this.message = message == null ? "" : message;
+            this.status = status;
+            this.headers = headers;
+            this.body = body == null ? "" : body;
+            this.headersMs = headersMs;
+            this.totalMs = totalMs;
+            this.wireBytes = wireBytes;
+            this.decodedBytes = decodedBytes;
+            this.truncated = truncated;
+        }
+
+        FetchResponse toResponse() {
+            return new FetchResponse(url, status, headers, null, wireBytes, decodedBytes, headersMs, totalMs, truncated);
+        }
+
+        /** Waits for the recorded time to first byte, scaled. */
+        void simulateHeaders() throws IOException {
+            sleep(headersMs);
+        }
+
+        /** Waits for the recorded body transfer time, scaled. */
+        void simulateBody() throws IOException {
+            sleep(totalMs - headersMs);
+        }
+    }
+
+    /**
+     * Parses isoogle.archive.mode. An unknown value turns the archive off with a warning
+     * rather than failing class initialization (and with it every later fetch).
+     */
+    private static Mode parseMode(String value) {
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("[WARN] Unknown isoogle.archive.mode '" + value + "' (expected off, record or replay), archive is off");
+            return Mode.OFF;
+        }
+    }
+
+    public static Mode getMode() {
+        return MODE;
+    }
+
+    public static boolean isRecording() {
+        return MODE == Mode.RECORD;
+    }
+
+    public static boolean isReplaying() {
+        return MODE == Mode.REPLAY;
+    }
+
+    /** True in record or replay mode. */
+    public static boolean isActive() {
+        return MODE != Mode.OFF;
+    }
+
+    /**
+     * The URL with API key and engine id removed; used as the archive key.
+     */
+    static String redact(String url) {
+        return SECRET_PARAMS.matcher(url).replaceAll("$1REDACTED");
+    }
+
+    /**
+     * Appends a completed exchange. Only the part of the body the caller actually read is kept.
+     */
+    static void recordResponse(FetchResponse response, String body) {
+        append(new Entry(redact(response.getUrl()), Outcome.RESPONSE, null, response.getStatus(), response.getHeaders(),
+                body, response.getHeadersMs(), response.getTotalMs(), response.getWireBytes(),
+                response.getDecodedBytes(), response.isTruncated()));
+    }
+
+    /**
+     * Appends an exchange that ended without a usable response.
+     */
+    static void recordFailure(String url, Outcome outcome, String message, long elapsedMs) {
+        append(new Entry(redact(url), outcome, message, 0, HttpHeaders.of(Map.of(), (k, v) -> true), null,
+                elapsedMs, elapsedMs, 0, 0, false));
+    }
+
+    /**
+     * Returns the next recorded exchange for the URL, or null if it was never recorded.
+     */
+    static Entry lookup(String url) {
+        String key = redact(url);
+        synchronized (FetchArchive.class) {
+            if (replayIndex == null) replayIndex = load();
+            List<Entry> entries = replayIndex.get(key);
+            if (entries == null || entries.isEmpty()) {
+                MISSES.incrementAndGet();
+                return null;
+            }
+            int position = replayPositions.getOrDefault(key, 0);
+            replayPositions.put(key, position + 1);
+            REPLAYED.incrementAndGet();
+            return entries.get(Math.min(position, entries.size() - 1));
+        }
+    }
+
+    public static String statsSummary() {
+        return "mode=" + MODE + ", recorded=" + RECORDED.get() + ", replayed=" + REPLAYED.get() + ", misses=" + MISSES.get();
+    }
+
+    private static synchronized void append(Entry entry) {
+        try {
+            if (out == null) {
+                Path parent = FILE.toAbsolutePath().getParent();
+                if (parent != null) Files.createDirectories(parent);
+                OutputStream file = Files.newOutputStream(FILE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                out = new DataOutputStream(file);
+            }
+            // Length-prefixed frames: a record cut short by a crash is detected and skipped on load
+            byte[] frame = encode(entry);
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+            RECORDED.incrementAndGet();
+        } catch (IOException e) {
+            System.out.println("[ERROR] Unable to write fetch archive: " + e.getMessage());
+        }
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.writeInt(FORMAT_VERSION);
+            data.writeUTF(entry.url);
+            data.writeByte(entry.outcome.ordinal());
+            data.writeUTF(entry.message);
+            data.writeInt(entry.status);
+            data.writeLong(entry.headersMs);
+            data.writeLong(entry.totalMs);
+            data.writeLong(entry.wireBytes);
+            data.writeLong(entry.decodedBytes);
+            data.writeBoolean(entry.truncated);
+
+            Map<String, List<String>> headers = entry.headers.map();
+            data.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> h : headers.entrySet()) {
+                data.writeUTF(h.getKey());
+                data.writeInt(h.getValue().size());
+                for (String value : h.getValue()) data.writeUTF(value);
+            }
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed)) {
+                deflater.write(entry.body.getBytes(StandardCharsets.UTF_8));
+            }
+            data.writeInt(compressed.size());
+            compressed.writeTo(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] frame) throws IOException {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame))) {
+            if (data.readInt() != FORMAT_VERSION) return null;
+            String url = data.readUTF();
+            Outcome outcome = Outcome.values()[data.readByte()];
+            String message = data.readUTF();
+            int status = data.readInt();
+            long headersMs = data.readLong();
+            long totalMs = data.readLong();
+            long wireBytes = data.readLong();
+            long decodedBytes = data.readLong();
+            boolean truncated = data.readBoolean();
+
+            Map<String, List<String>> headers = new HashMap<>();
+            int headerCount = data.readInt();
+            for (int i = 0; i < headerCount; i++) {
+                String name = data.readUTF();
+                int valueCount = data.readInt();
+                List<String> values = new ArrayList<>(valueCount);
+                for (int j = 0; j < valueCount; j++) values.add(data.readUTF());
+                headers.put(name, values);
+            }
+
+            byte[] compressed = new byte[data.readInt()];
+            data.readFully(compressed);
+            String body;
+            try (InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+                body = new String(inflater.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            return new Entry(url, outcome, message, status, HttpHeaders.of(headers, (k, v) -> true), body,
+                    headersMs, totalMs, wireBytes, decodedBytes, truncated);
+        }
+    }
+
+    private static Map<String, List<Entry>> load() {
+        Map<String, List<Entry>> index = new HashMap<>();
+        if (!Files.exists(FILE)) {
+            System.out.println("[WARN] Fetch archive not found: " + FILE.toAbsolutePath());
+            return index;
+        }
+
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(FILE)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                Entry entry = decode(frame);
+                if (entry == null) continue;
+                index.computeIfAbsent(entry.url, k -> new ArrayList<>()).add(entry);
+                count++;
+            }
+        } catch (EOFException e) {
+            System.out.println("[WARN] Fetch archive ends with a partial record, ignoring it");
+        } catch (IOException e) {
+            System.out.println("[ERROR] Unable to read fetch archive: " + e.getMessage());
+        }
+        System.out.println("[INFO] Loaded " + count + " archived exchanges from " + FILE);
+        return index;
+    }
+
+    private static void sleep(long recordedMs) throws IOException {
+        long ms = Math.round(recordedMs * LATENCY_SCALE);
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during simulated latency");
+        }
+    }
+}
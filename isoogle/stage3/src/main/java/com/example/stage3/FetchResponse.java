@@ -0,0 +1,110 @@
+package com.example.stage3;
+
+import java.net.http.HttpHeaders;
+
+/**
+ * FetchResponse
+ * Status, headers, decoded body and transfer statistics of a single HTTP fetch.
+ */
+public class FetchResponse {
+
+    private final String url;
+    private final int status;
+    private final HttpHeaders headers;
+    private final String body;
+    private final long wireBytes;
+    private final long decodedBytes;
+    private final long headersMs;
+    private final long totalMs;
+    private final boolean truncated;
+
+    public FetchResponse(String url, int status, HttpHeaders headers, String body,
+                         long wireBytes, long decodedBytes, long headersMs, long totalMs) {
+        this(url, status, headers, body, wireBytes, decodedBytes, headersMs, totalMs, false);
+    }
+
+    public FetchResponse(String url, int status, HttpHeaders headers, String body,
+                         long wireBytes, long decodedBytes, long headersMs, long totalMs, boolean truncated) {
+        this.url = url;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.wireBytes = wireBytes;
+        this.decodedBytes = decodedBytes;
+        this.headersMs = headersMs;
+        this.totalMs = totalMs;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Copy of this response carrying the given body.
+     */
+    FetchResponse withBody(String body) {
+        return new FetchResponse(url, status, headers, body, wireBytes, decodedBytes, headersMs, totalMs, truncated);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status >= 200 && status < 300;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the first value of the given response header, or null if absent.
+     */
+    public String header(String name) {
+        return headers.firstValue(name).orElse(null);
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /** Bytes received on the wire (before content decoding). */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    /** Bytes after gzip/deflate decoding. */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /** Time until the response headers arrived. */
+    public long getHeadersMs() {
+        return headersMs;
+    }
+
+    /** Time until the body was fully read. */
+    public long getTotalMs() {
+        return totalMs;
+    }
+
+    /** True if the body was cut off at the configured maximum body size. */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return status + " " + url
+             + " (" + formatBytes(wireBytes) + " wire / " + formatBytes(decodedBytes) + " decoded"
+             + (truncated ? ", truncated" : "")
+             + ", headers " + headersMs + " ms, total " + totalMs + " ms)";
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        return String.format("%.1f KB", bytes / 1024.0);
+    }
+}
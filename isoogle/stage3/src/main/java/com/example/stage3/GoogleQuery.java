@@ -1,25 +1,73 @@
 package com.example.stage3;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.util.Properties;
 
 /**
  * GoogleQuery
- * Sends a query to Google Custom Search API and fetches titles and links from the JSON response
+ * Sends a query to Google Custom Search API and fetches titles, links and snippets from the JSON response
+ *
+ * Results are cached per normalized query and result count (bounded, with a TTL), and
+ * concurrent identical queries share a single in-flight CSE call. More than 10 results
+ * are fetched as parallel start= pages and merged in rank order. Every CSE call is
+ * rationed by CseQuotaGovernor; when it refuses, the last known results are served.
+ *
+ * Settings (system properties):
+ *   isoogle.cse.cacheTtlSec  how long query results are reused (default 1800)
+ *   isoogle.cse.cacheSize    max cached queries (default 1000)
+ *   isoogle.cse.staleTtlSec  how long results may be served stale when the quota is used up (default 604800)
  */
 public class GoogleQuery {
 
+    private static final Duration CACHE_TTL = Duration.ofSeconds(Long.getLong("isoogle.cse.cacheTtlSec", 1800));
+    private static final long CACHE_SIZE = Long.getLong("isoogle.cse.cacheSize", 1000);
+    private static final Duration STALE_TTL = Duration.ofSeconds(Long.getLong("isoogle.cse.staleTtlSec", 7 * 24 * 3600));
+
+    // Values are futures so that a query in flight is shared by everyone asking for it
+    private static final Cache<String, CompletableFuture<List<CseResult>>> RESULTS = Caffeine.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .expireAfterWrite(CACHE_TTL)
+            .build();
+    // Last good results per key, kept well past the TTL for when the quota runs out
+    private static final Cache<String, List<CseResult>> STALE = Caffeine.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .expireAfterWrite(STALE_TTL)
+            .build();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    // Partial response: only the item fields we use, which drops pagemaps, metatags and thumbnails
+    private static final String RESPONSE_FIELDS = "items(title,link,snippet,displayLink)";
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final int PAGE_SIZE = 10;     // CSE limit per call
+    private static final int MAX_RESULTS = 100;  // CSE serves no results past rank 100
+
     private String apiKey;
     private String cx;
-    private static final Pattern LINK_TITLE_PATTERN = Pattern.compile("\"title\"\\s*:\\s*\"([^\"]*)\"[^\\}]*\"link\"\\s*:\\s*\"([^\"]*)\"");
 
     public GoogleQuery() {
         // load from .env file
@@ -42,7 +90,7 @@ public class GoogleQuery {
         }
         
         // Fall back to properties file if not set
-        if (apiKey == null || cx == null) {
+        if ((apiKey == null || cx == null) && !FetchArchive.isReplaying()) {
             try {
                 Properties prop = new Properties();
                 prop.load(new FileInputStream("GoogleAPI.properties"));
@@ -53,43 +101,207 @@ public class GoogleQuery {
             }
         }
         
+        // Replayed CSE responses are keyed without credentials, so none are needed
+        if ((apiKey == null || cx == null) && FetchArchive.isReplaying()) {
+            apiKey = "replay";
+            cx = "replay";
+        }
+
         if (apiKey == null || cx == null) {
             throw new RuntimeException("Google API credentials not found. Set GOOGLE_CSE_APIKEY and GOOGLE_CSE_CX in .env or environment variables.");
         }
     }
 
-    public HashMap<String, String> query(String query, int num) throws Exception {
+    /**
+     * Runs the query and returns up to num results in Google's ranking order.
+     */
+    public List<CseResult> query(String query, int num) throws Exception {
         // Add "International Organization of Standardization" to the query
         String enhancedQuery = query + " International Organization of Standardization";
-        String encoded_keyword = java.net.URLEncoder.encode(enhancedQuery, "UTF-8");
-        String urlStr = "https://www.googleapis.com/customsearch/v1?key=" + apiKey + "&cx=" + cx + "&num=" + num + "&q=" + encoded_keyword;
-
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-
-        BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) sb.append(line);
-        br.close();
-        conn.disconnect();
-
-        String json = sb.toString();
-        HashMap<String, String> results = new HashMap<>();
-        Matcher matcher = LINK_TITLE_PATTERN.matcher(json);
-        int count = 0;
-        
-        while (matcher.find() && count < num) {
-            String title = matcher.group(1);
-            String link = matcher.group(2);
-            
-            if (!title.isEmpty() && !link.isEmpty()) {
-                results.put(title, link);
-                count++;
+        String key = cacheKey(enhancedQuery, num);
+
+        CompletableFuture<List<CseResult>> mine = new CompletableFuture<>();
+        CompletableFuture<List<CseResult>> shared = RESULTS.asMap().putIfAbsent(key, mine);
+        if (shared != null) {
+            HITS.incrementAndGet();
+            System.out.println("[CSE] Cached or in-flight result for: " + enhancedQuery);
+            return new ArrayList<>(await(shared));
+        }
+
+        MISSES.incrementAndGet();
+        try {
+            List<CseResult> results;
+            try {
+                CseQuotaGovernor.acquire(pagesFor(num));
+                results = fetch(enhancedQuery, num);
+                STALE.put(key, results);
+            } catch (CseQuotaExceededException e) {
+                results = STALE.getIfPresent(key);
+                if (results == null) throw e;
+                CseQuotaGovernor.recordStaleServed();
+                System.out.println("[CSE] " + e.getMessage() + ", serving stale results for: " + enhancedQuery);
+                // Not kept in RESULTS, so the next caller tries for fresh results again
+                RESULTS.asMap().remove(key, mine);
             }
+            mine.complete(results);
+        } catch (Exception e) {
+            // Failures are not cached; waiting callers get the same error
+            RESULTS.asMap().remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
         }
+        return new ArrayList<>(mine.join());
+    }
+
+    /**
+     * Cache key: the query lowercased with whitespace collapsed, plus the result count.
+     */
+    static String cacheKey(String enhancedQuery, int num) {
+        return enhancedQuery.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT) + "|" + num;
+    }
+
+    public static String cacheStats() {
+        return "hits=" + HITS.get() + ", misses=" + MISSES.get() + ", entries=" + RESULTS.estimatedSize();
+    }
 
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for CSE results");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches num results. CSE returns at most PAGE_SIZE items per call, so larger
+     * windows are requested as start= pages in parallel and merged in rank order,
+     * dropping links already seen on an earlier page. A failed page is skipped as long
+     * as at least one page succeeded.
+     */
+    private List<CseResult> fetch(String enhancedQuery, int num) throws Exception {
+        int total = Math.max(1, Math.min(num, MAX_RESULTS));
+        if (total <= PAGE_SIZE) {
+            return fetchPage(enhancedQuery, 1, total);
+        }
+
+        List<Future<List<CseResult>>> pages = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int start = 1; start <= total; start += PAGE_SIZE) {
+                final int pageStart = start;
+                final int count = Math.min(PAGE_SIZE, total - start + 1);
+                pages.add(executor.submit(() -> fetchPage(enhancedQuery, pageStart, count)));
+            }
+        }
+
+        Map<String, CseResult> merged = new LinkedHashMap<>();
+        Exception failure = null;
+        int failedPages = 0;
+        for (Future<List<CseResult>> page : pages) {
+            try {
+                for (CseResult result : page.get()) {
+                    merged.putIfAbsent(DiskPageCache.canonicalize(result.getLink()), result);
+                }
+            } catch (ExecutionException e) {
+                failedPages++;
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failedPages == pages.size()) throw failure;
+        if (failedPages > 0) {
+            System.out.println("[WARN] " + failedPages + " of " + pages.size() + " CSE result pages failed: " + failure.getMessage());
+        }
+
+        // Renumber so ranks stay contiguous after duplicates are removed
+        List<CseResult> results = new ArrayList<>();
+        for (CseResult result : merged.values()) {
+            if (results.size() == total) break;
+            results.add(new CseResult(results.size() + 1, result.getTitle(), result.getLink(),
+                    result.getSnippet(), result.getDisplayLink()));
+        }
+        return results;
+    }
+
+    /** Number of CSE calls needed for num results. */
+    private static int pagesFor(int num) {
+        int total = Math.max(1, Math.min(num, MAX_RESULTS));
+        return (total + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    /**
+     * One CSE call for count results starting at the 1-based rank start.
+     */
+    private List<CseResult> fetchPage(String enhancedQuery, int start, int count) throws Exception {
+        String encoded_keyword = java.net.URLEncoder.encode(enhancedQuery, "UTF-8");
+        String urlStr = "https://www.googleapis.com/customsearch/v1?key=" + apiKey + "&cx=" + cx + "&num=" + count
+                + (start > 1 ? "&start=" + start : "")
+                + "&fields=" + java.net.URLEncoder.encode(RESPONSE_FIELDS, "UTF-8") + "&q=" + encoded_keyword;
+
+        int[] status = {0};
+        List<CseResult> results = HttpFetchClient.stream(urlStr, Collections.emptyMap(), (head, body) -> {
+            status[0] = head.getStatus();
+            return head.isSuccess() ? parseItems(body, count) : null;
+        });
+        if (results == null) {
+            throw new IOException("Google CSE request failed with HTTP " + status[0]);
+        }
         return results;
     }
+
+    /**
+     * Reads the items of a CSE response with a streaming parser, in ranking order.
+     * Anything besides title, link, snippet and displayLink is skipped without being
+     * materialized, in case the server ignores the fields parameter.
+     */
+    static List<CseResult> parseItems(Reader json, int num) throws IOException {
+        List<CseResult> results = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return results;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"items".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    CseResult item = parseItem(parser, results.size() + 1);
+                    if (item != null && results.size() < num) results.add(item);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static CseResult parseItem(JsonParser parser, int rank) throws IOException {
+        String title = null;
+        String link = null;
+        String snippet = null;
+        String displayLink = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_STRING) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "title": title = parser.getText(); break;
+                case "link": link = parser.getText(); break;
+                case "snippet": snippet = parser.getText(); break;
+                case "displayLink": displayLink = parser.getText(); break;
+                default: break;
+            }
+        }
+
+        if (title == null || title.isEmpty() || link == null || link.isEmpty()) return null;
+        return new CseResult(rank, title, link, snippet, displayLink);
+    }
 }
@@ -1,13 +1,17 @@
 package com.example.stage3;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import com.example.stage2.HostHealthTracker;
+import com.example.stage2.HtmlPageParser;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
 
 /**
  * HTMLFetcher
@@ -15,90 +19,225 @@ import java.util.regex.Pattern;
  */
 public class HTMLFetcher {
 
+    private static final int MAX_CACHED_STREAM_CHARS = 512 * 1024;  // streamed pages larger than this are not cached
+
     /**
      * Fetches the raw HTML content from the given URL.
+     * Pages are served from the in-memory cache first, then from the disk cache while
+     * fresh; stale copies are revalidated with a conditional request and reused when
+     * the server answers 304. Hosts with an open circuit and URLs that recently failed
+     * are not contacted (see HostHealthTracker); a stale copy is served if there is one.
      */
     public static String fetchHTML(String urlString) {
-        StringBuilder html = new StringBuilder();
-        BufferedReader reader = null;
+        String key = "html:" + DiskPageCache.canonicalize(urlString);
+        boolean[] fallback = {false};
+        return MemoryPageCache.getOrFetch(key, MemoryPageCache.PAGE_TTL,
+                () -> fetchThroughDiskCache(urlString, fallback), () -> !fallback[0]);
+    }
+
+    /**
+     * @param fallback set to true when a stale copy is served because the fetch did not
+     *                 happen or failed; such results must not be kept in the memory cache
+     */
+    private static String fetchThroughDiskCache(String urlString, boolean[] fallback) {
+        DiskPageCache.CachedPage cached = DiskPageCache.lookup(urlString);
+        if (cached != null && cached.isFresh()) {
+            return cached.getBody();
+        }
 
+        if (!HostHealthTracker.tryAcquire(urlString)) {
+            System.out.println("[SKIP] Unhealthy host or recently failed URL: " + urlString);
+            fallback[0] = true;
+            return staleOrEmpty(cached);
+        }
+
+        long start = System.currentTimeMillis();
         try {
-            URL url = new URL(urlString);
-            URLConnection conn = url.openConnection();
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-            conn.setConnectTimeout(1500);  // 1.5 second connect timeout
-            conn.setReadTimeout(2500);     // 2.5 second read timeout
-
-            reader = new BufferedReader(
-                        new InputStreamReader(
-                            conn.getInputStream(), "UTF-8"
-                        )
-                     );
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                html.append(line).append("\n");
+            Map<String, String> headers = cached != null ? cached.conditionalHeaders() : Collections.emptyMap();
+            FetchResponse response = HttpFetchClient.get(urlString, headers, true);
+            HostHealthTracker.recordResponse(urlString, response.getStatus(), response.getTotalMs());
+
+            if (response.getStatus() == 304 && cached != null) {
+                return DiskPageCache.revalidated(cached, response).getBody();
             }
+            if (!response.isSuccess()) {
+                System.out.println("[ERROR] Unable to fetch URL: " + urlString + " (HTTP " + response.getStatus() + ")");
+                return "";
+            }
+            DiskPageCache.store(urlString, response);  // not if truncated
+            return response.getBody();
 
-        } catch (java.net.SocketTimeoutException e) {
+        } catch (java.net.http.HttpTimeoutException | java.net.SocketTimeoutException e) {
+            HostHealthTracker.recordFailure(urlString, System.currentTimeMillis() - start);
             System.out.println("[TIMEOUT] Skipping slow URL: " + urlString);
+            fallback[0] = true;
+            return staleOrEmpty(cached);
+        } catch (UnsupportedContentException e) {
+            HostHealthTracker.rememberFailedUrl(urlString);
+            System.out.println("[SKIP] " + e.getMessage());
             return "";
+        } catch (InterruptedIOException e) {
+            // Cancelled by us, not a failure of the host or the URL
+            Thread.currentThread().interrupt();
+            HostHealthTracker.recordCancelled(urlString);
+            fallback[0] = true;
+            return staleOrEmpty(cached);
         } catch (Exception e) {
+            HostHealthTracker.recordFailure(urlString, System.currentTimeMillis() - start);
             System.out.println("[ERROR] Unable to fetch URL: " + urlString);
-            return "";
-        } finally {
-            try {
-                if (reader != null) reader.close();
-            } catch (Exception ignore) {}
+            fallback[0] = true;
+            return staleOrEmpty(cached);
         }
+    }
 
-        return html.toString();
+    /**
+     * Reads the HTML of a page as a character stream.
+     */
+    public interface PageReader<T> {
+        T read(Reader html) throws IOException;
     }
 
     /**
-     * Extracts links from HTML content and filters for same-domain links.
+     * Streams the HTML of the given URL into the reader instead of building it into a String.
+     * Cached copies are replayed from memory; on a network fetch the body is handed over as it
+     * arrives, and complete pages up to MAX_CACHED_STREAM_CHARS are still written to the page caches.
+     *
+     * @param onFailure value returned when the page cannot be fetched
      */
-    public static List<String> extractLinks(String htmlContent, String baseUrl) {
-        List<String> links = new ArrayList<>();
-        
-        String baseDomain = getDomain(baseUrl);
-        if (baseDomain == null) {
-            return links;
-        }
+    public static <T> T streamHTML(String urlString, PageReader<T> reader, T onFailure) {
+        String key = "html:" + DiskPageCache.canonicalize(urlString);
+        try {
+            String memory = MemoryPageCache.get(key);
+            if (memory != null) return reader.read(new StringReader(memory));
 
-        Pattern pattern = Pattern.compile("<a\\s+(?:[^>]*?\\s+)?href=([\"'])(.*?)\\1");
-        Matcher matcher = pattern.matcher(htmlContent);
+            DiskPageCache.CachedPage cached = DiskPageCache.lookup(urlString);
+            if (cached != null && cached.isFresh()) {
+                MemoryPageCache.put(key, cached.getBody(), MemoryPageCache.PAGE_TTL);
+                return reader.read(new StringReader(cached.getBody()));
+            }
 
-        while (matcher.find()) {
-            String rawLink = matcher.group(2).trim();
-            
-            if (rawLink.startsWith("#") || rawLink.startsWith("javascript") || rawLink.startsWith("mailto")) {
-                continue;
+            if (!HostHealthTracker.tryAcquire(urlString)) {
+                System.out.println("[SKIP] Unhealthy host or recently failed URL: " + urlString);
+                return cached != null ? reader.read(new StringReader(staleOrEmpty(cached))) : onFailure;
             }
 
+            Map<String, String> headers = cached != null ? cached.conditionalHeaders() : Collections.emptyMap();
+            long start = System.currentTimeMillis();
+            int[] status = {0};
+            String[] copy = {null};
             try {
-                URL absoluteUrl = new URL(new URL(baseUrl), rawLink);
-                String absoluteUrlString = absoluteUrl.toExternalForm();
-                
-                int queryIndex = absoluteUrlString.indexOf('?');
-                if (queryIndex != -1) {
-                    absoluteUrlString = absoluteUrlString.substring(0, queryIndex);
-                }
-                
-                if (baseDomain.equals(getDomain(absoluteUrlString))) {
-                    if (!absoluteUrlString.equals(baseUrl) && !links.contains(absoluteUrlString)) {
-                        links.add(absoluteUrlString);
+                T value = HttpFetchClient.stream(urlString, headers, true, (head, body) -> {
+                    status[0] = head.getStatus();
+                    if (head.getStatus() == 304 && cached != null) {
+                        String html = DiskPageCache.revalidated(cached, head).getBody();
+                        MemoryPageCache.put(key, html, MemoryPageCache.PAGE_TTL);
+                        return reader.read(new StringReader(html));
+                    }
+                    if (!head.isSuccess()) {
+                        System.out.println("[ERROR] Unable to fetch URL: " + urlString + " (HTTP " + head.getStatus() + ")");
+                        return onFailure;
+                    }
+
+                    CachingReader tee = new CachingReader(body, MAX_CACHED_STREAM_CHARS);
+                    T result = reader.read(tee);
+                    copy[0] = tee.getCopy();
+                    return result;
+                }, response -> {
+                    // Cached only once the exchange is complete, when truncation is known
+                    if (copy[0] != null && !response.isTruncated()) {
+                        DiskPageCache.store(urlString, response.withBody(copy[0]));
+                        MemoryPageCache.put(key, copy[0], MemoryPageCache.PAGE_TTL);
                     }
-                }
-                
-            } catch (Exception e) {
-                // Ignore invalid URL parsing errors
+                });
+                HostHealthTracker.recordResponse(urlString, status[0], System.currentTimeMillis() - start);
+                return value;
+            } catch (java.net.http.HttpTimeoutException | java.net.SocketTimeoutException e) {
+                HostHealthTracker.recordFailure(urlString, System.currentTimeMillis() - start);
+                System.out.println("[TIMEOUT] Skipping slow URL: " + urlString);
+                return cached != null ? reader.read(new StringReader(staleOrEmpty(cached))) : onFailure;
+            } catch (UnsupportedContentException e) {
+                HostHealthTracker.rememberFailedUrl(urlString);
+                System.out.println("[SKIP] " + e.getMessage());
+                return onFailure;
+            } catch (InterruptedIOException e) {
+                // Cancelled by us, not a failure of the host or the URL
+                Thread.currentThread().interrupt();
+                HostHealthTracker.recordCancelled(urlString);
+                return onFailure;
+            } catch (IOException e) {
+                HostHealthTracker.recordFailure(urlString, System.currentTimeMillis() - start);
+                System.out.println("[ERROR] Unable to fetch URL: " + urlString);
+                return cached != null ? reader.read(new StringReader(staleOrEmpty(cached))) : onFailure;
+            }
+        } catch (Exception e) {
+            System.out.println("[ERROR] Unable to analyze URL: " + urlString);
+            return onFailure;
+        }
+    }
+
+    /**
+     * Reader that keeps a copy of what passes through it, up to a limit.
+     * Past the limit the copy is dropped so large pages are never held in full.
+     */
+    private static class CachingReader extends FilterReader {
+        private StringBuilder copy = new StringBuilder();
+        private final int limit;
+
+        CachingReader(Reader in, int limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) record(new char[] {(char) c}, 0, 1);
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            if (n > 0) record(cbuf, off, n);
+            return n;
+        }
+
+        private void record(char[] cbuf, int off, int n) {
+            if (copy == null) return;
+            if (copy.length() + n > limit) {
+                copy = null;
+                return;
             }
+            copy.append(cbuf, off, n);
+        }
+
+        /** The full text read so far, or null if it exceeded the limit. */
+        String getCopy() {
+            return copy == null ? null : copy.toString();
         }
-        
-        return links;
     }
-    
+
+    private static String staleOrEmpty(DiskPageCache.CachedPage cached) {
+        if (cached == null) return "";
+        System.out.println("[CACHE] Serving stale copy of: " + cached.getUrl());
+        return cached.getBody();
+    }
+
+    /**
+     * Extracts links from HTML content and filters for same-domain links.
+     */
+    public static List<String> extractLinks(String htmlContent, String baseUrl) {
+        return HtmlPageParser.parse(htmlContent, baseUrl).getLinkUrls();
+    }
+
+    /**
+     * Like extractLinks, but keeps each link's anchor text and the clean text just before
+     * it so the links can be ranked with LinkScorer.
+     */
+    public static List<LinkCandidate> extractLinkCandidates(String htmlContent, String baseUrl) {
+        return StreamingPageAnalyzer.analyze(htmlContent, baseUrl, Collections.emptyList()).getLinkCandidates();
+    }
+
     /**
      * Extracts the host domain from a full URL.
      */
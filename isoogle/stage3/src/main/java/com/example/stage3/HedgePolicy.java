@@ -0,0 +1,137 @@
+package com.example.stage3;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HedgePolicy
+ * Decides when a slow page fetch gets a duplicate ("hedged") request.
+ *
+ * The hedge delay follows the recent time-to-first-byte distribution: a request
+ * that has not produced its response headers by the configured percentile of the
+ * last samples is a straggler, and a second request is sent on a fresh connection.
+ * Hedges are paid for from a budget that grows by a fixed share of every request,
+ * so hedging can never add more than that share of extra load.
+ *
+ * Settings (system properties):
+ *   isoogle.hedge.enabled        enable hedging of page fetches (default false)
+ *   isoogle.hedge.percentile     TTFB percentile used as hedge delay (default 95)
+ *   isoogle.hedge.minDelayMs     lower bound of the hedge delay (default 100)
+ *   isoogle.hedge.minSamples     samples needed before hedging starts (default 20)
+ *   isoogle.hedge.budgetPercent  hedges allowed per 100 requests (default 5)
+ *   isoogle.hedge.burst          hedges that can be saved up (default 5)
+ */
+class HedgePolicy {
+
+    private static final int WINDOW = 256;
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final int minSamples;
+    private final double tokensPerRequest;
+    private final double maxTokens;
+
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    private long delayMs = -1;
+    private double tokens;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+
+    HedgePolicy(boolean enabled, double percentile, long minDelayMs, long maxDelayMs,
+                int minSamples, double budgetPercent, double burst) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.minSamples = minSamples;
+        this.tokensPerRequest = budgetPercent / 100.0;
+        this.maxTokens = burst;
+        this.tokens = burst;
+    }
+
+    static HedgePolicy fromSystemProperties(long maxDelayMs) {
+        return new HedgePolicy(
+                Boolean.parseBoolean(System.getProperty("isoogle.hedge.enabled", "false")),
+                Double.parseDouble(System.getProperty("isoogle.hedge.percentile", "95")),
+                Long.getLong("isoogle.hedge.minDelayMs", 100),
+                maxDelayMs,
+                Integer.getInteger("isoogle.hedge.minSamples", 20),
+                Double.parseDouble(System.getProperty("isoogle.hedge.budgetPercent", "5")),
+                Double.parseDouble(System.getProperty("isoogle.hedge.burst", "5")));
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Counts a new hedgeable request and returns how long to wait for its headers
+     * before hedging, or -1 if it should not be hedged (disabled or too few samples).
+     */
+    synchronized long onRequest() {
+        if (!enabled) return -1;
+        requests.incrementAndGet();
+        tokens = Math.min(maxTokens, tokens + tokensPerRequest);
+        return delayMs;
+    }
+
+    /**
+     * Takes one hedge from the budget; false if the budget is used up.
+     */
+    synchronized boolean tryAcquireHedge() {
+        if (tokens < 1) {
+            budgetDenied.incrementAndGet();
+            return false;
+        }
+        tokens -= 1;
+        hedged.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the time to first byte of an original (not hedged) request.
+     */
+    synchronized void recordLatency(long headersMs) {
+        if (!enabled) return;
+        samples[nextSample] = headersMs;
+        nextSample = (nextSample + 1) % WINDOW;
+        sampleCount = Math.min(sampleCount + 1, WINDOW);
+
+        if (sampleCount >= minSamples && (delayMs < 0 || nextSample % RECOMPUTE_EVERY == 0)) {
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            long p = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+            delayMs = Math.max(minDelayMs, Math.min(maxDelayMs, p));
+        }
+    }
+
+    void recordHedgeWin() {
+        hedgeWins.incrementAndGet();
+    }
+
+    String statsSummary() {
+        long total = requests.get();
+        long fired = hedged.get();
+        return "requests=" + total + ", hedged=" + fired
+             + " (" + percent(fired, total) + "), hedgeWins=" + hedgeWins.get()
+             + " (" + percent(hedgeWins.get(), fired) + " of hedges)"
+             + ", budgetDenied=" + budgetDenied.get() + ", delayMs=" + currentDelayMs();
+    }
+
+    synchronized long currentDelayMs() {
+        return delayMs;
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "0%" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+}
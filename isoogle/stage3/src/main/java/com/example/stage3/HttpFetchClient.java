@@ -0,0 +1,657 @@
+package com.example.stage3;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HttpFetchClient
+ * Shared HTTP layer used by HTMLFetcher and GoogleQuery.
+ *
+ * One java.net.http.HttpClient is reused for all requests, so connections are kept
+ * alive and pooled per host, and HTTP/2 is negotiated where the server supports it.
+ * Responses are requested with gzip/deflate transfer compression and decoded while
+ * streaming. Every response carries its wire/decoded byte counts and timings.
+ *
+ * Settings (system properties):
+ *   isoogle.http.connectTimeoutMs  connect timeout (default 1500)
+ *   isoogle.http.readTimeoutMs     time allowed until response headers (default 2500)
+ *   isoogle.http.bodyTimeoutMs     time allowed to read the body (default 5000)
+ *   isoogle.http.version           HTTP_2 or HTTP_1_1 (default HTTP_2)
+ *   isoogle.http.poolSize          max idle HTTP/1.1 connections kept (default 0 = unbounded)
+ *   isoogle.http.keepAliveSec      idle connection keep-alive (default 60)
+ *   isoogle.http.maxBodyBytes      decoded body size cap (default 2 MB)
+ *   isoogle.http.verbose           log one line per request (default true)
+ *
+ * Bodies are checked before they are read: non-text content types (PDFs, images,
+ * archives) and bodies whose Content-Length exceeds the cap are refused with an
+ * UnsupportedContentException and the transfer is aborted. Undeclared bodies are cut
+ * off at the cap. Text is decoded with the charset from the Content-Type header, or
+ * from a meta charset tag in the first bytes of an HTML page, falling back to UTF-8.
+ *
+ * Page fetches can be hedged (see HedgePolicy): when the response headers take longer
+ * than the recent p95, the same request is sent again on a separate client, so it
+ * gets a fresh connection, and whichever response arrives first is used.
+ *
+ * With isoogle.archive.mode=record or replay, exchanges are written to or served
+ * from a FetchArchive instead (see there).
+ */
+public class HttpFetchClient {
+
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("isoogle.http.connectTimeoutMs", 1500);
+    private static final long READ_TIMEOUT_MS = Long.getLong("isoogle.http.readTimeoutMs", 2500);
+    private static final long BODY_TIMEOUT_MS = Long.getLong("isoogle.http.bodyTimeoutMs", 5000);
+    private static final long MAX_BODY_BYTES = Long.getLong("isoogle.http.maxBodyBytes", 2L * 1024 * 1024);
+    private static final boolean VERBOSE = Boolean.parseBoolean(System.getProperty("isoogle.http.verbose", "true"));
+
+    private static final String USER_AGENT = "Mozilla/5.0";
+    // Brotli has no decoder in the JDK, so only gzip and deflate are advertised
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int CHARSET_SNIFF_BYTES = 1024;
+    private static final Pattern CHARSET_PARAM = Pattern.compile("(?i)charset\\s*=\\s*\"?([\\w.:-]+)");
+    private static final Pattern META_CHARSET = Pattern.compile("(?i)<meta[^>]+charset\\s*=\\s*[\"']?([\\w.:-]+)");
+
+    private static final HttpClient CLIENT;
+    private static final HttpClient HEDGE_CLIENT;  // separate pool, so hedges never queue behind the straggler
+    private static final HedgePolicy HEDGING = HedgePolicy.fromSystemProperties(READ_TIMEOUT_MS);
+
+    static {
+        // Connection pool settings are read once by the JDK when the first client is built
+        setIfAbsent("jdk.httpclient.connectionPoolSize", System.getProperty("isoogle.http.poolSize", "0"));
+        setIfAbsent("jdk.httpclient.keepalive.timeout", System.getProperty("isoogle.http.keepAliveSec", "60"));
+
+        CLIENT = newClient();
+        HEDGE_CLIENT = HEDGING.isEnabled() ? newClient() : null;
+    }
+
+    private static HttpClient newClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.valueOf(System.getProperty("isoogle.http.version", "HTTP_2")))
+                .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * GET the given URL and return the fully decoded body.
+     */
+    public static FetchResponse get(String url) throws IOException {
+        return get(url, Collections.emptyMap());
+    }
+
+    /**
+     * GET the given URL with extra request headers and return the fully decoded body.
+     */
+    public static FetchResponse get(String url, Map<String, String> headers) throws IOException {
+        return get(url, headers, false);
+    }
+
+    /**
+     * GET the given URL and return the fully decoded body.
+     *
+     * @param hedgeable whether a straggling request may be duplicated; only for idempotent,
+     *                  unmetered requests such as page fetches (never for quota-bound APIs)
+     */
+    public static FetchResponse get(String url, Map<String, String> headers, boolean hedgeable) throws IOException {
+        Exchange<String> exchange = exchange(url, headers, hedgeable, (head, body) -> readFully(body));
+        return exchange.response.withBody(exchange.value);
+    }
+
+    /**
+     * Handler that consumes a response body as a character stream.
+     * The head carries status and headers; its body is null.
+     */
+    public interface StreamHandler<T> {
+        T handle(FetchResponse head, Reader body) throws IOException;
+    }
+
+    /**
+     * GET the given URL and hand the decoded body to the handler as a character stream,
+     * without buffering the whole document.
+     */
+    public static <T> T stream(String url, Map<String, String> headers, StreamHandler<T> handler) throws IOException {
+        return stream(url, headers, false, handler);
+    }
+
+    /**
+     * Streaming GET; see get(String, Map, boolean) for hedgeable.
+     */
+    public static <T> T stream(String url, Map<String, String> headers, boolean hedgeable, StreamHandler<T> handler) throws IOException {
+        return exchange(url, headers, hedgeable, handler).value;
+    }
+
+    /**
+     * Streaming GET that also hands the completed response (sizes, timings, whether the
+     * body was truncated) to onComplete once the handler has returned.
+     */
+    public static <T> T stream(String url, Map<String, String> headers, boolean hedgeable, StreamHandler<T> handler,
+                               Consumer<FetchResponse> onComplete) throws IOException {
+        Exchange<T> exchange = exchange(url, headers, hedgeable, handler);
+        onComplete.accept(exchange.response);
+        return exchange.value;
+    }
+
+    /**
+     * Hedge counters: requests seen, hedges fired, hedges that won, and the current delay.
+     */
+    public static String hedgeStats() {
+        return HEDGING.statsSummary();
+    }
+
+    public static boolean isHedgingEnabled() {
+        return HEDGING.isEnabled();
+    }
+
+    private static class Exchange<T> {
+        final FetchResponse response;
+        final T value;
+
+        Exchange(FetchResponse response, T value) {
+            this.response = response;
+            this.value = value;
+        }
+    }
+
+    private static <T> Exchange<T> exchange(String url, Map<String, String> headers, boolean hedgeable,
+                                            StreamHandler<T> handler) throws IOException {
+        if (FetchArchive.isReplaying()) return replay(url, handler);
+        if (FetchArchive.isRecording()) return record(url, headers, hedgeable, handler);
+        return exchangeLive(url, headers, hedgeable, handler);
+    }
+
+    /**
+     * Performs the exchange on the network and appends it to the FetchArchive,
+     * including timeouts and skipped content.
+     */
+    private static <T> Exchange<T> record(String url, Map<String, String> headers, boolean hedgeable,
+                                          StreamHandler<T> handler) throws IOException {
+        long start = System.nanoTime();
+        StringBuilder copy = new StringBuilder();
+        try {
+            Exchange<T> exchange = exchangeLive(url, headers, hedgeable,
+                    (head, body) -> handler.handle(head, new RecordingReader(body, copy)));
+            FetchArchive.recordResponse(exchange.response, copy.toString());
+            return exchange;
+        } catch (HttpTimeoutException e) {
+            FetchArchive.recordFailure(url, FetchArchive.Outcome.TIMEOUT, e.getMessage(), elapsedMs(start));
+            throw e;
+        } catch (UnsupportedContentException e) {
+            FetchArchive.recordFailure(url, FetchArchive.Outcome.SKIPPED, e.getReason(), elapsedMs(start));
+            throw e;
+        } catch (InterruptedIOException e) {
+            throw e;  // our own cancellation, not an outcome of the request
+        } catch (IOException e) {
+            FetchArchive.recordFailure(url, FetchArchive.Outcome.ERROR, String.valueOf(e.getMessage()), elapsedMs(start));
+            throw e;
+        }
+    }
+
+    /**
+     * Answers the exchange from the FetchArchive, with the recorded outcome and
+     * (optionally) the recorded latency. URLs that were never recorded fail.
+     */
+    private static <T> Exchange<T> replay(String url, StreamHandler<T> handler) throws IOException {
+        FetchArchive.Entry entry = FetchArchive.lookup(url);
+        if (entry == null) {
+            if (VERBOSE) System.out.println("[REPLAY] Not in archive: " + FetchArchive.redact(url));
+            throw new IOException("Not in fetch archive: " + FetchArchive.redact(url));
+        }
+
+        entry.simulateHeaders();
+        switch (entry.outcome) {
+            case TIMEOUT:
+                throw new HttpTimeoutException(entry.message);
+            case SKIPPED:
+                throw new UnsupportedContentException(url, entry.message);
+            case ERROR:
+                throw new IOException(entry.message);
+            default:
+                break;
+        }
+
+        FetchResponse response = entry.toResponse();
+        FetchResponse head = new FetchResponse(url, response.getStatus(), response.getHeaders(), null,
+                0, 0, response.getHeadersMs(), response.getHeadersMs());
+        T value = handler.handle(head, new StringReader(entry.body));
+        entry.simulateBody();
+
+        if (VERBOSE) System.out.println("[REPLAY] " + response);
+        return new Exchange<>(response, value);
+    }
+
+    private static <T> Exchange<T> exchangeLive(String url, Map<String, String> headers, boolean hedgeable,
+                                                StreamHandler<T> handler) throws IOException {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = hedgeable && HEDGING.isEnabled()
+                ? sendHedged(url, headers)
+                : send(url, headers);
+        long headersMs = elapsedMs(start);
+        FetchResponse head = new FetchResponse(url, response.statusCode(), response.headers(), null, 0, 0, headersMs, headersMs);
+
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        String mimeType = mimeType(contentType);
+        if (head.isSuccess()) {
+            // Decide from the headers alone whether the body is worth reading
+            if (!mimeType.isEmpty() && !isTextual(mimeType)) {
+                abort(response.body());
+                throw new UnsupportedContentException(url, "non-text content (" + mimeType + ")");
+            }
+            long declaredLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (declaredLength > MAX_BODY_BYTES) {
+                abort(response.body());
+                throw new UnsupportedContentException(url, "body too large (" + declaredLength + " bytes)");
+            }
+        }
+
+        CountingInputStream wire = new CountingInputStream(response.body());
+        BodyWatchdog watchdog = new BodyWatchdog(wire);
+        T value;
+        long decodedBytes;
+        boolean truncated;
+        try (CountingInputStream decoded = new CountingInputStream(decode(wire, response.headers()))) {
+            LimitedInputStream limited = new LimitedInputStream(decoded, MAX_BODY_BYTES);
+            Charset charset = charsetOf(contentType);
+            InputStream body = limited;
+            if (charset == null && mimeType.contains("html")) {
+                BufferedInputStream buffered = new BufferedInputStream(limited, CHARSET_SNIFF_BYTES);
+                charset = sniffMetaCharset(buffered);
+                body = buffered;
+            }
+
+            value = handler.handle(head, new InputStreamReader(body, charset != null ? charset : StandardCharsets.UTF_8));
+            decodedBytes = decoded.getCount();
+            truncated = limited.isTruncated();
+        } catch (IOException e) {
+            try {
+                wire.close();
+            } catch (IOException ignore) {}
+            if (watchdog.fired) throw new HttpTimeoutException("body read timed out: " + url);
+            // An interrupted body read surfaces as a plain IOException caused by InterruptedException
+            if (Thread.currentThread().isInterrupted() || e.getCause() instanceof InterruptedException) {
+                InterruptedIOException interrupted = new InterruptedIOException("Interrupted while reading " + url);
+                interrupted.initCause(e);
+                throw interrupted;
+            }
+            throw e;
+        } finally {
+            watchdog.disarm();
+        }
+
+        FetchResponse result = new FetchResponse(url, response.statusCode(), response.headers(), null,
+                wire.getCount(), decodedBytes, headersMs, elapsedMs(start), truncated);
+        if (VERBOSE) System.out.println("[FETCH] " + result);
+        return new Exchange<>(result, value);
+    }
+
+    /**
+     * Media type without parameters, lowercased ("text/html; charset=utf-8" -> "text/html").
+     */
+    static String mimeType(String contentType) {
+        int semi = contentType.indexOf(';');
+        return (semi >= 0 ? contentType.substring(0, semi) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * True for bodies that can be read as text: text/*, HTML/XML and JSON types.
+     */
+    static boolean isTextual(String mimeType) {
+        return mimeType.startsWith("text/")
+            || mimeType.equals("application/xhtml+xml")
+            || mimeType.equals("application/xml") || mimeType.endsWith("+xml")
+            || mimeType.equals("application/json") || mimeType.endsWith("+json");
+    }
+
+    /**
+     * Charset declared in the Content-Type header, or null if absent or unsupported.
+     */
+    static Charset charsetOf(String contentType) {
+        Matcher m = CHARSET_PARAM.matcher(contentType);
+        return m.find() ? toCharset(m.group(1)) : null;
+    }
+
+    /**
+     * Looks for a meta charset declaration in the first bytes of an HTML body.
+     * The stream is reset afterwards, so nothing is consumed.
+     */
+    private static Charset sniffMetaCharset(BufferedInputStream in) throws IOException {
+        in.mark(CHARSET_SNIFF_BYTES);
+        byte[] head = new byte[CHARSET_SNIFF_BYTES];
+        int n = 0;
+        int r;
+        while (n < head.length && (r = in.read(head, n, head.length - n)) != -1) n += r;
+        in.reset();
+
+        Matcher m = META_CHARSET.matcher(new String(head, 0, n, StandardCharsets.ISO_8859_1));
+        return m.find() ? toCharset(m.group(1)) : null;
+    }
+
+    private static Charset toCharset(String name) {
+        try {
+            return Charset.forName(name.trim().replace("\"", "").replace("'", ""));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes a body without reading it, which aborts the transfer.
+     */
+    private static void abort(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignore) {}
+    }
+
+    private static HttpResponse<InputStream> send(String url, Map<String, String> headers) throws IOException {
+        try {
+            return CLIENT.send(buildRequest(url, headers), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + url);
+        }
+    }
+
+    /**
+     * Sends the request and, if its headers have not arrived within the hedge delay and
+     * the hedge budget allows, sends it again on HEDGE_CLIENT. The first successful
+     * response wins; the other one is cancelled and its body discarded.
+     */
+    private static HttpResponse<InputStream> sendHedged(String url, Map<String, String> headers) throws IOException {
+        HttpRequest request = buildRequest(url, headers);
+        long delayMs = HEDGING.onRequest();
+        long start = System.nanoTime();
+
+        CompletableFuture<HttpResponse<InputStream>> primary =
+                CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        // Stragglers count too: a cancelled or timed-out request records how long it had waited
+        primary.whenComplete((r, e) -> HEDGING.recordLatency(elapsedMs(start)));
+
+        CompletableFuture<HttpResponse<InputStream>> hedge = null;
+        try {
+            if (delayMs < 0) return await(primary, url);
+            try {
+                return primary.get(delayMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (!HEDGING.tryAcquireHedge()) return await(primary, url);
+            } catch (ExecutionException e) {
+                throw unwrap(e, url);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while fetching " + url);
+            }
+
+            if (VERBOSE) System.out.println("[HEDGE] No response after " + delayMs + " ms, hedging: " + url);
+            hedge = HEDGE_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+
+            CompletableFuture<HttpResponse<InputStream>> first = await(firstSuccessful(primary, hedge), url);
+            CompletableFuture<HttpResponse<InputStream>> loser = first == primary ? hedge : primary;
+            if (first == hedge) {
+                HEDGING.recordHedgeWin();
+                if (VERBOSE) System.out.println("[HEDGE] Hedge won after " + elapsedMs(start) + " ms: " + url);
+            }
+            loser.cancel(true);
+            loser.thenAccept(r -> abort(r.body()));
+            return first.join();
+        } catch (InterruptedIOException e) {
+            // Nobody reads the responses any more; close whichever body still arrives
+            primary.cancel(true);
+            primary.thenAccept(r -> abort(r.body()));
+            if (hedge != null) {
+                hedge.cancel(true);
+                hedge.thenAccept(r -> abort(r.body()));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Completes with whichever of the two futures succeeds first, or exceptionally once both have failed.
+     */
+    private static <R> CompletableFuture<CompletableFuture<R>> firstSuccessful(CompletableFuture<R> a, CompletableFuture<R> b) {
+        CompletableFuture<CompletableFuture<R>> result = new CompletableFuture<>();
+        a.whenComplete((value, error) -> onAttemptDone(result, a, error, b));
+        b.whenComplete((value, error) -> onAttemptDone(result, b, error, a));
+        return result;
+    }
+
+    private static <R> void onAttemptDone(CompletableFuture<CompletableFuture<R>> result, CompletableFuture<R> attempt,
+                                          Throwable error, CompletableFuture<R> other) {
+        if (error == null) {
+            result.complete(attempt);
+        } else if (other.isCompletedExceptionally()) {
+            result.completeExceptionally(error);
+        }
+    }
+
+    private static <R> R await(CompletableFuture<R> future, String url) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + url);
+        } catch (ExecutionException e) {
+            throw unwrap(e, url);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e, String url) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) return (IOException) cause;
+        return new IOException("Request failed: " + url, cause);
+    }
+
+    private static HttpRequest buildRequest(String url, Map<String, String> headers) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(URI.create(url));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        builder.timeout(Duration.ofMillis(READ_TIMEOUT_MS))
+               .header("User-Agent", USER_AGENT)
+               .header("Accept-Encoding", ACCEPT_ENCODING)
+               .GET();
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            builder.setHeader(h.getKey(), h.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Wrap the raw body stream with a decoder matching its Content-Encoding.
+     */
+    private static InputStream decode(InputStream raw, HttpHeaders headers) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(raw, 8192);
+            case "deflate":
+                // "deflate" is meant to be zlib-wrapped, but some servers send raw deflate data
+                PushbackInputStream in = new PushbackInputStream(raw, 2);
+                int b0 = in.read();
+                int b1 = in.read();
+                if (b1 >= 0) in.unread(b1);
+                if (b0 >= 0) in.unread(b0);
+                boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+                return new InflaterInputStream(in, new Inflater(!zlib), 8192);
+            default:
+                return raw;
+        }
+    }
+
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) System.setProperty(key, value);
+    }
+
+    /**
+     * Closes a body stream that is still being read after BODY_TIMEOUT_MS,
+     * which unblocks the reader with an IOException.
+     */
+    private static class BodyWatchdog {
+        private final InputStream stream;
+        private volatile boolean armed = true;
+        private volatile boolean fired = false;
+
+        BodyWatchdog(InputStream stream) {
+            this.stream = stream;
+            CompletableFuture.delayedExecutor(BODY_TIMEOUT_MS, TimeUnit.MILLISECONDS).execute(this::fire);
+        }
+
+        private void fire() {
+            if (!armed) return;
+            fired = true;
+            try {
+                stream.close();
+            } catch (IOException ignore) {}
+        }
+
+        void disarm() {
+            armed = false;
+        }
+    }
+
+    /**
+     * Reader that keeps a copy of everything read through it, for the FetchArchive.
+     */
+    private static class RecordingReader extends FilterReader {
+        private final StringBuilder copy;
+
+        RecordingReader(Reader in, StringBuilder copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) copy.append((char) c);
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            if (n > 0) copy.append(cbuf, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * InputStream that ends after a byte limit and remembers whether it cut the body short.
+     */
+    static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        private boolean truncated = false;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return endOfLimit();
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return endOfLimit();
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        private int endOfLimit() throws IOException {
+            if (!truncated && super.read() != -1) truncated = true;
+            return -1;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    /**
+     * InputStream that counts the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.stage3;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * KeywordMatcher
+ * Aho-Corasick automaton over a set of keywords, so that all of them are counted in
+ * a single pass over the text instead of one scan (and one regex) per keyword.
+ *
+ * Keywords are NFKC-normalized and lowercased like the text in WordCounter. Matching
+ * rules are those of the former per-keyword regex: Latin and other keywords must sit
+ * on Unicode word boundaries (\b with UNICODE_CHARACTER_CLASS), keywords containing
+ * Han, Hiragana or Katakana are counted as plain substrings, and matches of the same
+ * keyword never overlap (leftmost first).
+ *
+ * The automaton is immutable and shared: matchers are cached per keyword list, so the
+ * pages of one request reuse the one built for its keywords. The counting state lives
+ * in StreamingKeywordCounter.
+ */
+public class KeywordMatcher {
+
+    private static final int MAX_CACHED = 64;
+    private static final Cache<List<String>, KeywordMatcher> CACHE = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHED)
+            .build();
+
+    final List<String> rawKeys;
+    final int[] keyLength;              // 0 for null or blank keywords
+    final boolean[] cjk;
+    final boolean[] startsWithWordChar;
+    final boolean[] endsWithWordChar;
+    final int maxLength;
+
+    // Trie with failure links. Node 0 is the root; children are sorted by label.
+    private final char[][] labels;
+    private final int[][] children;
+    private final int[] fail;
+    private final int[][] outputs;      // keywords ending at each node, including via failure links
+    private final int[] rootAscii;      // root transitions for ASCII, the common case
+
+    /**
+     * Returns the matcher for the keyword list, building it on first use.
+     */
+    public static KeywordMatcher of(List<String> keywords) {
+        List<String> key = keywords == null ? Collections.emptyList() : new ArrayList<>(keywords);
+        return CACHE.get(key, KeywordMatcher::new);
+    }
+
+    private KeywordMatcher(List<String> keywords) {
+        int n = keywords.size();
+        rawKeys = keywords;
+        keyLength = new int[n];
+        cjk = new boolean[n];
+        startsWithWordChar = new boolean[n];
+        endsWithWordChar = new boolean[n];
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+
+        int longest = 1;
+        for (int k = 0; k < n; k++) {
+            String rawKey = keywords.get(k);
+            if (rawKey == null || rawKey.trim().isEmpty()) continue;
+            String key = normalize(rawKey).trim();
+            if (key.isEmpty()) continue;
+
+            keyLength[k] = key.length();
+            cjk[k] = isCJK(key);
+            startsWithWordChar[k] = isWordChar(key.charAt(0));
+            endsWithWordChar[k] = isWordChar(key.charAt(key.length() - 1));
+            longest = Math.max(longest, key.length());
+
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = trie.get(node).get(key.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(node).put(key.charAt(i), next);
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                node = next;
+            }
+            ends.get(node).add(k);
+        }
+        maxLength = longest;
+
+        int size = trie.size();
+        labels = new char[size][];
+        children = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> edges = trie.get(node);
+            labels[node] = new char[edges.size()];
+            children[node] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                labels[node][i] = e.getKey();
+                children[node][i] = e.getValue();
+                i++;
+            }
+        }
+
+        rootAscii = new int[128];
+        for (int i = 0; i < labels[0].length; i++) {
+            if (labels[0][i] < 128) rootAscii[labels[0][i]] = children[0][i];
+        }
+
+        // Breadth-first, so a node's failure target is finished before the node itself
+        fail = new int[size];
+        outputs = new int[size][];
+        outputs[0] = toArray(ends.get(0));
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int child : children[0]) queue[tail++] = child;
+        while (head < tail) {
+            int node = queue[head++];
+            int[] own = toArray(ends.get(node));
+            int[] inherited = outputs[fail[node]];
+            outputs[node] = inherited.length == 0 ? own : concat(own, inherited);
+
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = children[node][i];
+                int f = fail[node];
+                int target;
+                while ((target = child(f, labels[node][i])) < 0 && f != 0) f = fail[f];
+                fail[child] = target >= 0 ? target : 0;
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Counts the keywords in a whole text, keyed by the original keywords.
+     */
+    public Map<String, Integer> count(String normalizedText) {
+        StreamingKeywordCounter counter = new StreamingKeywordCounter(this);
+        for (int i = 0, n = normalizedText.length(); i < n; i++) counter.accept(normalizedText.charAt(i));
+        return counter.finish();
+    }
+
+    int size() {
+        return keyLength.length;
+    }
+
+    /**
+     * State reached from the given state on character c.
+     */
+    int next(int state, char c) {
+        while (true) {
+            int target = child(state, c);
+            if (target >= 0) return target;
+            if (state == 0) return 0;
+            state = fail[state];
+        }
+    }
+
+    /** Keywords that end at the given state. */
+    int[] outputs(int state) {
+        return outputs[state];
+    }
+
+    private int child(int node, char c) {
+        if (node == 0 && c < 128) {
+            int target = rootAscii[c];
+            return target == 0 ? -1 : target;
+        }
+        char[] edges = labels[node];
+        if (edges.length == 0) return -1;
+        int i = Arrays.binarySearch(edges, c);
+        return i >= 0 ? children[node][i] : -1;
+    }
+
+    static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * normalize() for page text, doing only the work that can change the result. ASCII
+     * text is returned as is: NFKC leaves it alone and the counter lowercases ASCII one
+     * char at a time. Text that is already in NFKC is only lowercased.
+     */
+    static String normalizeText(String text) {
+        int n = text.length();
+        int i = 0;
+        while (i < n && text.charAt(i) < 0x80) i++;
+        if (i == n) return text;
+
+        if (Normalizer.isNormalized(text, Normalizer.Form.NFKC)) return text.toLowerCase(Locale.ROOT);
+        return normalize(text);
+    }
+
+    static boolean isCJK(String key) {
+        return key.codePoints().anyMatch(cp -> {
+            Character.UnicodeScript s = Character.UnicodeScript.of(cp);
+            return s == Character.UnicodeScript.HAN || s == Character.UnicodeScript.HIRAGANA || s == Character.UnicodeScript.KATAKANA;
+        });
+    }
+
+    /**
+     * Word character as defined by \w under Pattern.UNICODE_CHARACTER_CLASS.
+     */
+    static boolean isWordChar(char c) {
+        if (Character.isAlphabetic(c) || Character.isDigit(c)) return true;
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK
+            || type == Character.ENCLOSING_MARK
+            || type == Character.COMBINING_SPACING_MARK
+            || type == Character.CONNECTOR_PUNCTUATION
+            || c == '\u200C' || c == '\u200D';
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
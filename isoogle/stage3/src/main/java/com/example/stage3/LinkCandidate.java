@@ -0,0 +1,15 @@
+package com.example.stage3;
+
+import com.example.stage2.HtmlPageParser;
+
+/**
+ * LinkCandidate
+ * A same-domain link found on a page, with the anchor text and the clean text
+ * just before it, used to decide which sub-pages are worth fetching.
+ */
+public class LinkCandidate extends HtmlPageParser.Link {
+
+    public LinkCandidate(String url, String anchorText, String context) {
+        super(url, anchorText, context);
+    }
+}
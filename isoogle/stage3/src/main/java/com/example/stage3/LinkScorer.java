@@ -0,0 +1,157 @@
+package com.example.stage3;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * LinkScorer
+ * Ranks candidate sub-links by how likely they are to carry query keywords, so the
+ * sub-page budget goes to content pages rather than nav, login or cookie pages.
+ *
+ * A link scores for keywords in its anchor text, keywords in its URL path, and
+ * keywords in the text just before it (closer hits count more). Boilerplate paths
+ * and binary files are penalized. Ties keep document order.
+ */
+public class LinkScorer {
+
+    private static final double ANCHOR_WEIGHT = 3.0;
+    private static final double PATH_WEIGHT = 2.0;
+    private static final double PROXIMITY_WEIGHT = 1.0;
+    private static final double BOILERPLATE_PENALTY = 4.0;
+    private static final double BINARY_PENALTY = 10.0;
+
+    // Above this score a link is worth fetching without waiting to see the rest of the page
+    public static final double STRONG_LINK_SCORE = 2.0;
+    // Below this score (boilerplate, binaries) a link is not worth fetching at all
+    public static final double MIN_LINK_SCORE = 0.0;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^a-z0-9\\u4e00-\\u9fa5]+");
+
+    private static final Set<String> BOILERPLATE_TOKENS = Set.of(
+            "login", "logout", "signin", "signup", "register", "account", "cart", "checkout",
+            "cookie", "cookies", "privacy", "terms", "legal", "disclaimer", "contact", "careers",
+            "jobs", "subscribe", "newsletter", "sitemap", "search", "tag", "tags", "share");
+
+    private static final Set<String> BINARY_EXTENSIONS = Set.of(
+            "pdf", "jpg", "jpeg", "png", "gif", "svg", "webp", "zip", "gz", "exe", "mp3", "mp4",
+            "doc", "docx", "xls", "xlsx", "ppt", "pptx");
+
+    /**
+     * Returns the candidates worth fetching, ordered from most to least promising.
+     * Links scoring below MIN_LINK_SCORE are dropped.
+     */
+    public static List<LinkCandidate> rank(List<LinkCandidate> candidates, List<String> keywords) {
+        List<String[]> keywordTokens = tokenizeKeywords(keywords);
+        Map<LinkCandidate, Double> scores = new IdentityHashMap<>();
+        List<LinkCandidate> ranked = new ArrayList<>();
+        for (LinkCandidate candidate : candidates) {
+            double score = scoreTokens(candidate, keywordTokens);
+            if (score < MIN_LINK_SCORE) continue;
+            scores.put(candidate, score);
+            ranked.add(candidate);
+        }
+
+        // List.sort is stable, so equally scored links keep their page order
+        ranked.sort(Comparator.comparingDouble((LinkCandidate c) -> scores.get(c)).reversed());
+        return ranked;
+    }
+
+    /**
+     * Relevance score of a single link for the given keywords.
+     */
+    public static double score(LinkCandidate candidate, List<String> keywords) {
+        return scoreTokens(candidate, tokenizeKeywords(keywords));
+    }
+
+    private static double scoreTokens(LinkCandidate candidate, List<String[]> keywordTokens) {
+        String anchor = normalize(candidate.getAnchorText());
+        String path = normalize(pathOf(candidate.getUrl()));
+        String context = normalize(candidate.getContext());
+
+        double score = 0;
+        for (String[] tokens : keywordTokens) {
+            score += ANCHOR_WEIGHT * matchedShare(anchor, tokens);
+            score += PATH_WEIGHT * matchedShare(path, tokens);
+            score += PROXIMITY_WEIGHT * proximity(context, tokens);
+        }
+
+        String[] pathTokens = path.trim().split(" ");
+        for (String token : pathTokens) {
+            if (BOILERPLATE_TOKENS.contains(token)) {
+                score -= BOILERPLATE_PENALTY;
+                break;
+            }
+        }
+        if (pathTokens.length > 0 && BINARY_EXTENSIONS.contains(pathTokens[pathTokens.length - 1])
+                && candidate.getUrl().lastIndexOf('.') > candidate.getUrl().lastIndexOf('/')) {
+            score -= BINARY_PENALTY;
+        }
+        return score;
+    }
+
+    /**
+     * Share of the keyword's tokens found in the text, 0..1.
+     */
+    private static double matchedShare(String text, String[] tokens) {
+        if (tokens.length == 0 || text.isBlank()) return 0;
+        int found = 0;
+        for (String token : tokens) {
+            if (containsToken(text, token)) found++;
+        }
+        return (double) found / tokens.length;
+    }
+
+    /**
+     * 0..1 depending on how close to the end of the context (i.e. to the link) the
+     * last occurrence of the keyword is.
+     */
+    private static double proximity(String context, String[] tokens) {
+        if (tokens.length == 0 || context.isBlank()) return 0;
+        String phrase = String.join(" ", tokens);
+        if (!isCJK(phrase)) phrase = " " + phrase + " ";
+        int index = context.lastIndexOf(phrase);
+        if (index < 0) return 0;
+        int distance = context.length() - (index + phrase.length());
+        return 1.0 - (double) Math.max(0, distance) / context.length();
+    }
+
+    private static boolean containsToken(String text, String token) {
+        return isCJK(token) ? text.contains(token) : text.contains(" " + token + " ");
+    }
+
+    private static List<String[]> tokenizeKeywords(List<String> keywords) {
+        List<String[]> result = new ArrayList<>();
+        if (keywords == null) return result;
+        for (String keyword : keywords) {
+            if (keyword == null) continue;
+            String normalized = normalize(keyword).trim();
+            if (!normalized.isEmpty()) result.add(normalized.split(" "));
+        }
+        return result;
+    }
+
+    /**
+     * Lowercase, non-word runs collapsed to single spaces, padded with a space on each
+     * side so whole tokens can be matched with contains(" token ").
+     */
+    private static String normalize(String text) {
+        if (text == null || text.isEmpty()) return " ";
+        return " " + NON_WORD.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ").trim() + " ";
+    }
+
+    private static String pathOf(String url) {
+        int scheme = url.indexOf("://");
+        int slash = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        return slash < 0 ? "" : url.substring(slash);
+    }
+
+    private static boolean isCJK(String s) {
+        return s.chars().anyMatch(c -> c >= '\u4e00' && c <= '\u9fa5');
+    }
+}
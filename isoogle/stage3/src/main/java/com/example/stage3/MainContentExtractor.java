@@ -0,0 +1,251 @@
+package com.example.stage3;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * MainContentExtractor
+ * Finds the main content of a page (the article body) so that navigation menus,
+ * headers, footers, cookie banners and sidebars do not reach the keyword counter,
+ * the keyword extractor and the rankers.
+ *
+ * Works on the DOM: boilerplate elements are dropped by tag, ARIA role and class/id
+ * hints, then an explicit article/main element is used if it holds enough text;
+ * otherwise text blocks (paragraphs, list items, headings) vote for their parent and
+ * grandparent containers, weighted by length and commas and discounted by link
+ * density, and the best container wins. Returns null when no container is convincing,
+ * so the caller keeps the whole page.
+ *
+ * Text lengths, link text and commas of every element are summed up bottom-up in one
+ * pass over the DOM and kept up to date as hinted boilerplate is removed, so the cost
+ * stays linear in the size of the page.
+ */
+public class MainContentExtractor {
+
+    private static final int MIN_BLOCK_CHARS = 25;      // shorter blocks are captions, buttons, menu items
+    private static final int MIN_CONTENT_CHARS = 200;   // below this the extraction is not trusted
+    private static final double MIN_CONTENT_SHARE = 0.2; // of the boilerplate-free body text
+    private static final double MAX_HINTED_SHARE = 0.3;  // of the body text, for class/id-hinted boilerplate
+
+    private static final String BOILERPLATE_TAGS =
+        "script, style, noscript, template, svg, iframe, form, button, select, nav, header, footer, aside";
+    private static final String BOILERPLATE_ROLES =
+        "[role=navigation], [role=banner], [role=contentinfo], [role=complementary], [role=search], [aria-hidden=true]";
+    private static final Pattern BOILERPLATE_HINT = Pattern.compile(
+        "nav|menu|header|footer|sidebar|cookie|consent|banner|breadcrumb|social|share|related|comment|advert|\\bads?\\b|promo|newsletter|popup|modal|skip",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern CONTENT_HINT = Pattern.compile(
+        "article|content|main|post|entry|story|body|text",
+        Pattern.CASE_INSENSITIVE);
+
+    /**
+     * HTML of the page's title and main content, or null if none was found.
+     */
+    public static String extract(String html, String baseUrl) {
+        if (html == null || html.isEmpty()) return null;
+
+        Document doc = Jsoup.parse(html, baseUrl == null ? "" : baseUrl);
+        Element body = doc.body();
+        if (body == null) return null;
+
+        body.select(BOILERPLATE_TAGS).remove();
+        body.select(BOILERPLATE_ROLES).remove();
+        Map<Element, Stats> stats = computeStats(body);
+        removeHintedBoilerplate(body, stats);
+
+        int bodyChars = stats.get(body).chars;
+        if (bodyChars < MIN_CONTENT_CHARS) return null;
+
+        Element content = explicitContent(body, stats);
+        if (content == null) content = bestScoredContainer(body, stats);
+        if (content == null) return null;
+
+        int contentChars = stats.get(content).chars;
+        if (contentChars < MIN_CONTENT_CHARS || contentChars < bodyChars * MIN_CONTENT_SHARE) return null;
+
+        // Keep the title: it is part of the page text the keywords are counted in
+        return "<title>" + Entities.escape(doc.title()) + "</title>\n" + content.outerHtml();
+    }
+
+    /**
+     * Text length, text length inside links and comma count of an element's subtree.
+     * The length is that of the text pieces trimmed and joined by single spaces, as
+     * in Element.text().
+     */
+    private static final class Stats {
+        int chars;
+        int linkChars;
+        int commas;
+
+        void addText(int length) {
+            if (length == 0) return;
+            chars += chars > 0 ? length + 1 : length;
+        }
+    }
+
+    /**
+     * Stats of every element under root, in one bottom-up pass, so that scoring never
+     * re-walks a subtree.
+     */
+    private static Map<Element, Stats> computeStats(Element root) {
+        Map<Element, Stats> stats = new IdentityHashMap<>();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof Element) {
+                    stats.put((Element) node, new Stats());
+                } else if (node instanceof TextNode && node.parent() instanceof Element) {
+                    String text = ((TextNode) node).getWholeText();
+                    Stats parent = stats.get((Element) node.parent());
+                    parent.addText(normalizedLength(text));
+                    parent.commas += countCommas(text);
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (!(node instanceof Element)) return;
+                Element element = (Element) node;
+                Stats own = stats.get(element);
+                if (element.normalName().equals("a")) own.linkChars = own.chars;
+                if (element == root) return;
+                Stats parent = stats.get(element.parent());
+                parent.addText(own.chars);
+                parent.linkChars += own.linkChars;
+                parent.commas += own.commas;
+            }
+        }, root);
+        return stats;
+    }
+
+    /**
+     * Class/id hints are weaker evidence than tags and roles: a wrapper like "page
+     * has-sidebar" holds the whole page, so only elements with a small share of the
+     * text are dropped. Removed subtrees are not descended into.
+     */
+    private static void removeHintedBoilerplate(Element body, Map<Element, Stats> stats) {
+        int maxChars = (int) (stats.get(body).chars * MAX_HINTED_SHARE);
+        NodeTraversor.filter(new NodeFilter() {
+            @Override
+            public FilterResult head(Node node, int depth) {
+                if (!(node instanceof Element) || node == body) return FilterResult.CONTINUE;
+                Element e = (Element) node;
+                if (!e.hasAttr("class") && !e.hasAttr("id")) return FilterResult.CONTINUE;
+                String hints = e.className() + " " + e.id();
+                if (BOILERPLATE_HINT.matcher(hints).find() && !CONTENT_HINT.matcher(hints).find()
+                        && stats.get(e).chars <= maxChars) {
+                    subtractFromAncestors(e, stats);
+                    return FilterResult.REMOVE;
+                }
+                return FilterResult.CONTINUE;
+            }
+        }, body);
+    }
+
+    private static void subtractFromAncestors(Element removed, Map<Element, Stats> stats) {
+        Stats own = stats.get(removed);
+        int linkChars = own.linkChars;
+        for (Element p = removed.parent(); p != null && stats.containsKey(p); p = p.parent()) {
+            if (p.normalName().equals("a")) linkChars = own.chars;  // all of it was link text from here up
+            Stats s = stats.get(p);
+            s.chars -= own.chars;
+            s.linkChars -= linkChars;
+            s.commas -= own.commas;
+        }
+    }
+
+    /**
+     * The largest article/main element, if it holds enough text.
+     */
+    private static Element explicitContent(Element body, Map<Element, Stats> stats) {
+        Element best = null;
+        int bestChars = 0;
+        for (Element e : body.select("article, main, [role=main]")) {
+            int chars = stats.get(e).chars;
+            if (chars > bestChars) {
+                best = e;
+                bestChars = chars;
+            }
+        }
+        return bestChars >= MIN_CONTENT_CHARS ? best : null;
+    }
+
+    private static Element bestScoredContainer(Element body, Map<Element, Stats> stats) {
+        Map<Element, Double> scores = new IdentityHashMap<>();
+        Elements blocks = body.select("p, pre, li, td, blockquote, dd, h1, h2, h3");
+        for (Element block : blocks) {
+            Stats s = stats.get(block);
+            if (s.chars < MIN_BLOCK_CHARS) continue;
+
+            double score = 1 + s.commas + Math.min(s.chars / 100, 3);
+            score *= 1 - linkDensity(s);
+
+            Element parent = block.parent();
+            if (parent == null) continue;
+            scores.merge(parent, score, Double::sum);
+            Element grandparent = parent.parent();
+            if (grandparent != null) scores.merge(grandparent, score / 2, Double::sum);
+        }
+
+        Element best = null;
+        double bestScore = 0;
+        for (Map.Entry<Element, Double> e : scores.entrySet()) {
+            Element candidate = e.getKey();
+            Stats s = stats.get(candidate);
+            if (s == null) continue;  // above body
+            String hints = candidate.className() + " " + candidate.id();
+            double score = e.getValue();
+            if (CONTENT_HINT.matcher(hints).find()) score *= 1.25;
+            score *= 1 - linkDensity(s);
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /** Share of the element's text that sits inside links. */
+    private static double linkDensity(Stats stats) {
+        if (stats.chars <= 0) return 0;
+        return Math.min(1.0, (double) stats.linkChars / stats.chars);
+    }
+
+    /** Length of the text trimmed, with whitespace runs collapsed to one space. */
+    private static int normalizedLength(String text) {
+        int length = 0;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u00a0') {
+                space = length > 0;
+            } else {
+                if (space) length++;
+                length++;
+                space = false;
+            }
+        }
+        return length;
+    }
+
+    private static int countCommas(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '\uFF0C' || c == '\u3001') count++;  // also fullwidth and ideographic commas
+        }
+        return count;
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.stage3;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * MemoryPageCache
+ * Bounded in-heap cache of fetched pages and transcripts.
+ *
+ * Backed by Caffeine, whose W-TinyLFU policy only admits a new entry when it is
+ * estimated to be used more often than the entry it would evict, so a burst of
+ * one-off URLs cannot flush the popular pages. The cache is bounded by the total
+ * size of the cached text, and every entry carries its own time-to-live.
+ *
+ * Settings (system properties):
+ *   isoogle.memcache.maxBytes       total size of cached text (default 64 MB)
+ *   isoogle.memcache.pageTtlSec     TTL of fetched HTML pages (default 600)
+ *   isoogle.memcache.transcriptTtlSec  TTL of YouTube transcripts (default 3600)
+ */
+public class MemoryPageCache {
+
+    private static final long MAX_BYTES = Long.getLong("isoogle.memcache.maxBytes", 64L * 1024 * 1024);
+    public static final Duration PAGE_TTL = Duration.ofSeconds(Long.getLong("isoogle.memcache.pageTtlSec", 600));
+    public static final Duration TRANSCRIPT_TTL = Duration.ofSeconds(Long.getLong("isoogle.memcache.transcriptTtlSec", 3600));
+
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private static final Cache<String, Entry> CACHE = Caffeine.newBuilder()
+            .maximumWeight(MAX_BYTES)
+            .weigher((String key, Entry entry) -> entry.weight(key))
+            .expireAfter(new Expiry<String, Entry>() {
+                @Override
+                public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                    return entry.ttlNanos;
+                }
+
+                @Override
+                public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                    return entry.ttlNanos;
+                }
+
+                @Override
+                public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+
+    private static class Entry {
+        final String text;
+        final long ttlNanos;
+
+        Entry(String text, Duration ttl) {
+            this.text = text;
+            this.ttlNanos = ttl.toNanos();
+        }
+
+        int weight(String key) {
+            // Java strings take up to two bytes per char
+            long bytes = 2L * (text.length() + key.length()) + ENTRY_OVERHEAD_BYTES;
+            return (int) Math.min(Integer.MAX_VALUE, bytes);
+        }
+    }
+
+    /**
+     * Returns the cached text for the key, or null if absent or expired.
+     */
+    public static String get(String key) {
+        Entry entry = CACHE.getIfPresent(key);
+        return entry == null ? null : entry.text;
+    }
+
+    /**
+     * Caches the text under the key for the given time-to-live.
+     */
+    public static void put(String key, String text, Duration ttl) {
+        if (text == null || ttl.isZero() || ttl.isNegative()) return;
+        CACHE.put(key, new Entry(text, ttl));
+    }
+
+    /**
+     * Returns the cached text, or runs the fetcher and caches its result.
+     * Empty results (failed fetches) are not cached.
+     */
+    public static String getOrFetch(String key, Duration ttl, Supplier<String> fetcher) {
+        return getOrFetch(key, ttl, fetcher, () -> true);
+    }
+
+    /**
+     * Like getOrFetch(String, Duration, Supplier), but the result is only cached if
+     * cacheable answers true once the fetcher has run (e.g. not for a stale fallback).
+     */
+    public static String getOrFetch(String key, Duration ttl, Supplier<String> fetcher, BooleanSupplier cacheable) {
+        String cached = get(key);
+        if (cached != null) return cached;
+
+        String text = fetcher.get();
+        if (text != null && !text.isEmpty() && cacheable.getAsBoolean()) put(key, text, ttl);
+        return text;
+    }
+
+    public static long getHits() {
+        return CACHE.stats().hitCount();
+    }
+
+    public static long getMisses() {
+        return CACHE.stats().missCount();
+    }
+
+    public static long getEvictions() {
+        return CACHE.stats().evictionCount();
+    }
+
+    /**
+     * Total weight (approximate bytes) currently held.
+     */
+    public static long getWeightedSize() {
+        return CACHE.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L);
+    }
+
+    public static String statsSummary() {
+        CacheStats stats = CACHE.stats();
+        return "hits=" + stats.hitCount() + ", misses=" + stats.missCount()
+             + ", evictions=" + stats.evictionCount() + ", entries=" + CACHE.estimatedSize()
+             + ", bytes=" + getWeightedSize();
+    }
+}
@@ -10,6 +10,9 @@ public class SearchResult {
     private String url;
     private int rankScore;
     private String content;
+    private AnalyzedDocument analyzedDocument;
+    private String snippet;
+    private int cseRank;
     private java.util.List<String> derivedKeywords;
 
     public SearchResult(String siteName, String url) {
@@ -39,6 +42,36 @@ public class SearchResult {
 
     public void setContent(String content) {
         this.content = content;
+        this.analyzedDocument = null;
+    }
+
+    /**
+     * The content tokenized once, shared by the keyword extractor and the rankers.
+     */
+    public AnalyzedDocument getAnalyzedDocument() {
+        if (analyzedDocument == null) analyzedDocument = AnalyzedDocument.of(content);
+        return analyzedDocument;
+    }
+
+    public void setAnalyzedDocument(AnalyzedDocument analyzedDocument) {
+        this.analyzedDocument = analyzedDocument;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
+    }
+
+    /** 1-based position in the Google CSE results (0 if unknown). */
+    public int getCseRank() {
+        return cseRank;
+    }
+
+    public void setCseRank(int cseRank) {
+        this.cseRank = cseRank;
     }
 
     public java.util.List<String> getDerivedKeywords() {
@@ -0,0 +1,163 @@
+package com.example.stage3;
+
+import java.util.Arrays;
+
+/**
+ * SparseVector
+ * Term vector over TermDictionary ids: ids sorted ascending with a parallel array of
+ * weights. Dot products are a merge-join of the two id arrays, without boxing or
+ * hashing.
+ *
+ * Vectors are immutable; use Builder (or of(int[], int) for raw term counts) to
+ * create one.
+ */
+public final class SparseVector {
+
+    public static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+    private final int[] ids;
+    private final float[] weights;
+    private double norm = -1;
+
+    private SparseVector(int[] ids, float[] weights) {
+        this.ids = ids;
+        this.weights = weights;
+    }
+
+    /**
+     * Term-count vector of a sequence of term ids (in any order, with repeats).
+     */
+    public static SparseVector of(int[] termIds, int length) {
+        if (length == 0) return EMPTY;
+        int[] sorted = Arrays.copyOf(termIds, length);
+        Arrays.sort(sorted);
+
+        int[] ids = new int[length];
+        float[] weights = new float[length];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n > 0 && ids[n - 1] == sorted[i]) {
+                weights[n - 1]++;
+            } else {
+                ids[n] = sorted[i];
+                weights[n] = 1;
+                n++;
+            }
+        }
+        return new SparseVector(Arrays.copyOf(ids, n), Arrays.copyOf(weights, n));
+    }
+
+    /** Number of non-zero entries. */
+    public int size() {
+        return ids.length;
+    }
+
+    /** Term id of the i-th entry; entries are ordered by id. */
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public float weight(int i) {
+        return weights[i];
+    }
+
+    /**
+     * Weight of the term, or 0 if it is not in the vector.
+     */
+    public float get(int termId) {
+        int i = Arrays.binarySearch(ids, termId);
+        return i >= 0 ? weights[i] : 0f;
+    }
+
+    public double dot(SparseVector other) {
+        int[] a = ids;
+        int[] b = other.ids;
+        double sum = 0.0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                sum += (double) weights[i] * other.weights[j];
+                i++;
+                j++;
+            }
+        }
+        return sum;
+    }
+
+    /** Euclidean length, computed on first use. */
+    public double norm() {
+        if (norm < 0) {
+            double sum = 0.0;
+            for (float w : weights) sum += (double) w * w;
+            norm = Math.sqrt(sum);
+        }
+        return norm;
+    }
+
+    /**
+     * Cosine of the angle between the two vectors, or 0 if either is empty.
+     */
+    public double cosine(SparseVector other) {
+        double denominator = norm() * other.norm();
+        return denominator == 0 ? 0.0 : dot(other) / denominator;
+    }
+
+    /**
+     * Accumulates (term id, weight) pairs in any order; weights of the same id add up.
+     */
+    public static final class Builder {
+        private int[] ids;
+        private float[] weights;
+        private int size = 0;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedSize) {
+            ids = new int[Math.max(1, expectedSize)];
+            weights = new float[ids.length];
+        }
+
+        public Builder add(int termId, float weight) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            ids[size] = termId;
+            weights[size] = weight;
+            size++;
+            return this;
+        }
+
+        public SparseVector build() {
+            if (size == 0) return EMPTY;
+
+            // Sort the pairs by id: pack (id, position) into longs so one primitive sort does it
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) order[i] = ((long) ids[i] << 32) | i;
+            Arrays.sort(order);
+
+            int[] sortedIds = new int[size];
+            float[] sortedWeights = new float[size];
+            int n = 0;
+            for (long packed : order) {
+                int id = (int) (packed >>> 32);
+                float weight = weights[(int) packed];
+                if (n > 0 && sortedIds[n - 1] == id) {
+                    sortedWeights[n - 1] += weight;
+                } else {
+                    sortedIds[n] = id;
+                    sortedWeights[n] = weight;
+                    n++;
+                }
+            }
+            return new SparseVector(Arrays.copyOf(sortedIds, n), Arrays.copyOf(sortedWeights, n));
+        }
+    }
+}
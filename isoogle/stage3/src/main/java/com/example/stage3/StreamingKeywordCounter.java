@@ -0,0 +1,101 @@
+package com.example.stage3;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StreamingKeywordCounter
+ * Counts keywords in text that arrives one character at a time.
+ *
+ * Runs the shared KeywordMatcher automaton, so every keyword is matched in the same
+ * pass, and gives the same counts as WordCounter.countWords on the assembled text:
+ * Latin keywords must sit on word boundaries, CJK keywords are counted as
+ * substrings, and matches of the same keyword never overlap. Only a window of the
+ * last (longest keyword + 1) characters is kept.
+ */
+public class StreamingKeywordCounter {
+
+    private final KeywordMatcher matcher;
+    private final int[] counts;
+    private final long[] lastEnd;       // end (exclusive) of the last counted match per keyword
+    private final int[] pending;        // matches waiting for the next character to check \b at their end
+    private int pendingCount = 0;
+
+    private final char[] history;
+    private int state = 0;
+    private long position = 0;
+
+    public StreamingKeywordCounter(List<String> keywords) {
+        this(KeywordMatcher.of(keywords));
+    }
+
+    StreamingKeywordCounter(KeywordMatcher matcher) {
+        this.matcher = matcher;
+        int n = matcher.size();
+        counts = new int[n];
+        lastEnd = new long[n];
+        pending = new int[n];
+        history = new char[matcher.maxLength + 1];
+    }
+
+    /**
+     * Feed the next character of the (already cleaned) text.
+     */
+    public void accept(char c) {
+        char lower = Character.toLowerCase(c);
+        history[(int) (position % history.length)] = lower;
+
+        if (pendingCount > 0) {
+            boolean word = KeywordMatcher.isWordChar(lower);
+            for (int i = 0; i < pendingCount; i++) {
+                int k = pending[i];
+                if (matcher.endsWithWordChar[k] != word) {
+                    counts[k]++;
+                    lastEnd[k] = position;
+                }
+            }
+            pendingCount = 0;
+        }
+
+        state = matcher.next(state, lower);
+        for (int k : matcher.outputs(state)) {
+            long start = position - matcher.keyLength[k] + 1;
+            if (start < lastEnd[k]) continue;  // overlaps the previous match of this keyword
+
+            if (matcher.cjk[k]) {
+                counts[k]++;
+                lastEnd[k] = position + 1;
+            } else {
+                boolean prevIsWord = start > 0 && KeywordMatcher.isWordChar(history[(int) ((start - 1) % history.length)]);
+                if (prevIsWord != matcher.startsWithWordChar[k]) pending[pendingCount++] = k;
+            }
+        }
+
+        position++;
+    }
+
+    /**
+     * Finish the stream and return keyword -> count, keyed by the original keywords.
+     */
+    public Map<String, Integer> finish() {
+        for (int i = 0; i < pendingCount; i++) {
+            int k = pending[i];
+            if (matcher.endsWithWordChar[k]) counts[k]++;
+        }
+        pendingCount = 0;
+
+        Map<String, Integer> result = new HashMap<>();
+        List<String> rawKeys = matcher.rawKeys;
+        for (int k = 0; k < rawKeys.size(); k++) {
+            String rawKey = rawKeys.get(k);
+            if (rawKey == null) continue;
+            if (matcher.keyLength[k] == 0) {
+                if (position == 0) result.put(rawKey, 0);
+                continue;
+            }
+            result.put(rawKey, counts[k]);
+        }
+        return result;
+    }
+}
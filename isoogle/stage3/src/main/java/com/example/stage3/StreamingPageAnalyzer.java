@@ -0,0 +1,185 @@
+package com.example.stage3;
+
+import com.example.stage2.HtmlPageParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * StreamingPageAnalyzer
+ * One-pass analysis of an HTML character stream: HtmlPageParser extracts the clean
+ * text, title and same-domain links (with their anchor text) while the keywords are
+ * counted, all as the document arrives.
+ *
+ * Produces the same counts as WordCounter.countWords, but only keeps a small tag
+ * buffer and a keyword window besides the clean text itself; analyze never
+ * materializes the raw HTML. analyzeMainContent needs the whole document for its DOM
+ * pass and keeps a copy of it, which is why main-content mode is opt-in.
+ */
+public class StreamingPageAnalyzer {
+
+    /**
+     * Clean text, title, keyword counts and sub-page links of one page.
+     */
+    public static class Result {
+        private final String cleanText;
+        private final String title;
+        private final String description;
+        private final Map<String, Integer> wordCountMap;
+        private final List<LinkCandidate> links;
+        private final int[] sentenceStarts;
+
+        Result(String cleanText, String title, String description, Map<String, Integer> wordCountMap,
+               List<LinkCandidate> links, int[] sentenceStarts) {
+            this.cleanText = cleanText;
+            this.title = title;
+            this.description = description;
+            this.wordCountMap = wordCountMap;
+            this.links = links;
+            this.sentenceStarts = sentenceStarts;
+        }
+
+        public static Result empty(List<String> keywords) {
+            return new Result("", "", "", WordCounter.countWords("", keywords), new ArrayList<>(), new int[0]);
+        }
+
+        /** Clean text tokenized once, with the sentence boundaries seen in the HTML. */
+        public AnalyzedDocument toAnalyzedDocument() {
+            return AnalyzedDocument.of(cleanText, sentenceStarts);
+        }
+
+        public String getCleanText() {
+            return cleanText;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /** Content of the description meta tag, or "". */
+        public String getDescription() {
+            return description;
+        }
+
+        public Map<String, Integer> getWordCountMap() {
+            return wordCountMap;
+        }
+
+        public List<LinkCandidate> getLinkCandidates() {
+            return links;
+        }
+    }
+
+    /**
+     * Analyze the HTML read from the given stream.
+     *
+     * @param html     HTML character stream (read to the end, not closed)
+     * @param baseUrl  URL of the page, used to resolve and filter links
+     * @param keywords Keywords to count
+     * @param onLink   Called with each new same-domain link as soon as its anchor is closed (may be null)
+     */
+    public static Result analyze(Reader html, String baseUrl, List<String> keywords, Consumer<LinkCandidate> onLink) throws IOException {
+        Scanner scanner = new Scanner(baseUrl, keywords, onLink);
+        scanner.acceptAll(html);
+        return scanner.finishAnalysis();
+    }
+
+    /**
+     * Analyze an HTML document that is already in memory.
+     */
+    public static Result analyze(String html, String baseUrl, List<String> keywords) {
+        Scanner scanner = new Scanner(baseUrl, keywords, null);
+        if (html != null) scanner.accept(html);
+        return scanner.finishAnalysis();
+    }
+
+    /**
+     * Like analyze, but the clean text, keyword counts and sentences only cover the
+     * page's main content (see MainContentExtractor). Title, description and links
+     * still come from the whole page, so sub-page discovery is unchanged. Falls back
+     * to the whole page when no main content is found.
+     *
+     * The page is still scanned as it arrives, so onLink fires during the download;
+     * the copy of the HTML kept for MainContentExtractor is only parsed at the end.
+     */
+    public static Result analyzeMainContent(Reader html, String baseUrl, List<String> keywords, Consumer<LinkCandidate> onLink) throws IOException {
+        Scanner page = new Scanner(baseUrl, keywords, onLink);
+        StringBuilder copy = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = html.read(buffer)) != -1) {
+            copy.append(buffer, 0, n);
+            for (int i = 0; i < n; i++) page.accept(buffer[i]);
+        }
+        Result whole = page.finishAnalysis();
+
+        String mainHtml = MainContentExtractor.extract(copy.toString(), baseUrl);
+        return mainHtml == null ? whole : withMainText(whole, analyze(mainHtml, baseUrl, keywords));
+    }
+
+    /**
+     * analyzeMainContent for an HTML document that is already in memory.
+     */
+    public static Result analyzeMainContent(String html, String baseUrl, List<String> keywords, Consumer<LinkCandidate> onLink) {
+        Scanner page = new Scanner(baseUrl, keywords, onLink);
+        String mainHtml = MainContentExtractor.extract(html, baseUrl);
+        if (mainHtml == null) {
+            if (html != null) page.accept(html);
+            return page.finishAnalysis();
+        }
+
+        // Whole page for title, description and links; main content for the text
+        page.countKeywords = false;
+        page.accept(html);
+        Result whole = page.finishAnalysis();
+        return withMainText(whole, analyze(mainHtml, baseUrl, keywords));
+    }
+
+    private static Result withMainText(Result whole, Result main) {
+        return new Result(main.cleanText, whole.title, whole.description, main.wordCountMap, whole.links,
+                main.sentenceStarts);
+    }
+
+    /**
+     * HtmlPageParser that feeds the clean text to the keyword counter and reports
+     * links as LinkCandidates.
+     */
+    private static class Scanner extends HtmlPageParser {
+        private final StreamingKeywordCounter counter;
+        private final Consumer<LinkCandidate> onLink;
+        private boolean countKeywords = true;
+
+        Scanner(String baseUrl, List<String> keywords, Consumer<LinkCandidate> onLink) {
+            super(baseUrl);
+            this.counter = new StreamingKeywordCounter(keywords);
+            this.onLink = onLink;
+        }
+
+        @Override
+        protected void onText(char c) {
+            if (countKeywords) counter.accept(c);
+        }
+
+        @Override
+        protected Link newLink(String url, String anchorText, String context) {
+            return new LinkCandidate(url, anchorText, context);
+        }
+
+        @Override
+        protected void onNewLink(Link link) {
+            if (onLink != null) onLink.accept((LinkCandidate) link);
+        }
+
+        Result finishAnalysis() {
+            Page page = finish();
+            List<LinkCandidate> links = new ArrayList<>(page.getLinks().size());
+            for (Link link : page.getLinks()) links.add((LinkCandidate) link);
+            return new Result(page.getCleanText(), page.getTitle(), page.getDescription(), counter.finish(), links,
+                    page.getSentenceStarts());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.stage3;
+
+import com.example.stage2.HostHealthTracker;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * SubPagePrefetcher
+ * Starts sub-page analyses while the root page is still being downloaded.
+ *
+ * The streaming scanner offers each same-domain link as soon as it has seen its
+ * anchor. Links that LinkScorer rates as strong are submitted right away, so their
+ * fetches overlap the rest of the root page; the others are held back. When the
+ * root is done, fill() spends any remaining budget on the best held-back links.
+ * collect() then waits for the sub-pages until the sub-link deadline (measured from
+ * the first prefetch) or the site deadline, whichever comes first.
+ */
+class SubPagePrefetcher {
+
+    private final ExecutorService executor;
+    private final Function<String, WebPageResult> analyzer;
+    private final List<String> keywords;
+    private final int maxPages;
+    private final long subLinkTimeMs;
+    private final long siteDeadline;
+
+    private final Set<String> seen = new HashSet<>();
+    private final List<String> started = new ArrayList<>();
+    private final List<Future<WebPageResult>> futures = new ArrayList<>();
+    private final List<LinkCandidate> heldBack = new ArrayList<>();
+    private long firstStartTime = -1;
+
+    SubPagePrefetcher(ExecutorService executor, Function<String, WebPageResult> analyzer, List<String> keywords,
+                      int maxPages, long subLinkTimeMs, long siteDeadline) {
+        this.executor = executor;
+        this.analyzer = analyzer;
+        this.keywords = keywords;
+        this.maxPages = maxPages;
+        this.subLinkTimeMs = subLinkTimeMs;
+        this.siteDeadline = siteDeadline;
+    }
+
+    /**
+     * Offers a candidate link; starts it at once if it scores as a strong link and
+     * there is budget left, otherwise keeps it for fill().
+     */
+    synchronized void offer(LinkCandidate candidate) {
+        if (started.size() >= maxPages || !seen.add(candidate.getUrl())) return;
+        if (HostHealthTracker.isBlocked(candidate.getUrl())) return;
+
+        double score = LinkScorer.score(candidate, keywords);
+        if (score >= LinkScorer.STRONG_LINK_SCORE) {
+            start(candidate.getUrl(), score);
+        } else {
+            heldBack.add(candidate);
+        }
+    }
+
+    /**
+     * Offers the given links, then starts the best held-back links until the budget is used.
+     */
+    synchronized void fill(List<LinkCandidate> candidates) {
+        if (candidates != null) candidates.forEach(this::offer);
+        for (LinkCandidate candidate : LinkScorer.rank(heldBack, keywords)) {
+            if (started.size() >= maxPages) break;
+            start(candidate.getUrl(), LinkScorer.score(candidate, keywords));
+        }
+        heldBack.clear();
+    }
+
+    private void start(String link, double score) {
+        long now = System.currentTimeMillis();
+        if (now >= siteDeadline) return;
+        if (firstStartTime < 0) firstStartTime = now;
+
+        started.add(link);
+        System.out.println("    -> Prefetching sub-page (" + started.size() + "/" + maxPages + ", score "
+                + String.format("%.1f", score) + "): " + link);
+        futures.add(executor.submit(() -> analyzer.apply(link)));
+    }
+
+    /**
+     * Waits for the started sub-pages and adds them to the root. Late ones are cancelled.
+     *
+     * @return number of sub-pages added
+     */
+    int collect(WebPageResult rootResult) {
+        List<String> links;
+        List<Future<WebPageResult>> pending;
+        long deadline;
+        synchronized (this) {
+            links = new ArrayList<>(started);
+            pending = new ArrayList<>(futures);
+            deadline = firstStartTime < 0 ? siteDeadline : Math.min(siteDeadline, firstStartTime + subLinkTimeMs);
+        }
+
+        int count = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            try {
+                long remaining = deadline - System.currentTimeMillis();
+                rootResult.addChild(pending.get(i).get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
+                count++;
+            } catch (TimeoutException e) {
+                System.out.println("  [TIMEOUT] Site processing took too long, stopping at " + count + " sublinks");
+                cancel(pending.subList(i, pending.size()));
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(pending.subList(i, pending.size()));
+                break;
+            } catch (ExecutionException e) {
+                System.out.println("    [ERROR] Sub-page analysis failed: " + links.get(i));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Cancels every sub-page that is still running.
+     */
+    synchronized void cancelAll() {
+        cancel(futures);
+    }
+
+    private static void cancel(List<Future<WebPageResult>> futures) {
+        for (Future<WebPageResult> f : futures) f.cancel(true);
+    }
+}
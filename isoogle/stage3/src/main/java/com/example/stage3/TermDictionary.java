@@ -0,0 +1,126 @@
+package com.example.stage3;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TermDictionary
+ * Process-wide mapping of terms to dense int ids, so that term vectors (SparseVector)
+ * and tokenized pages (AnalyzedDocument) can work on primitive arrays instead of
+ * string-keyed maps. Every distinct term string is kept once, however many pages use it.
+ *
+ * Ids are assigned on first use and never change or get reused. Lookups are lock-free;
+ * only the first sighting of a term takes the lock.
+ *
+ * The trade-off is that terms are never evicted: a long-running server would otherwise
+ * keep every token of every page it has seen (numbers, junk strings, CJK bigrams). So the
+ * dictionary stops growing at isoogle.terms.maxTerms terms (default about 1M, some tens
+ * of MB). After that, new terms get an overflow id instead: a negative id derived from
+ * the term's hash, the same for every page, while the term string is kept only by the
+ * AnalyzedDocument that contains it (see AnalyzedDocument.getTerm). Two overflow terms
+ * whose hashes collide share an id.
+ */
+public final class TermDictionary {
+
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final int MAX_TERMS = Math.max(INITIAL_CAPACITY, Integer.getInteger("isoogle.terms.maxTerms", 1 << 20));
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>(INITIAL_CAPACITY);
+    private static final Object LOCK = new Object();
+    private static volatile String[] terms = new String[INITIAL_CAPACITY];
+    private static volatile int size = 0;
+
+    private TermDictionary() {
+    }
+
+    /**
+     * Id of the term, assigning a new one if it has not been seen yet, or its overflow
+     * id once the dictionary is full.
+     */
+    public static int id(String term) {
+        Integer id = IDS.get(term);
+        if (id != null) return id;
+        if (size >= MAX_TERMS) return overflowId(term);
+
+        synchronized (LOCK) {
+            id = IDS.get(term);
+            if (id != null) return id;
+
+            int next = size;
+            if (next >= MAX_TERMS) return overflowId(term);
+            String[] current = terms;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, next * 2);
+                terms = current;
+            }
+            current[next] = term;
+            size = next + 1;
+            // Published after the term is stored, so whoever sees the id can resolve it
+            IDS.put(term, next);
+            return next;
+        }
+    }
+
+    /**
+     * Id of the term, or -1 if it has never been seen (the dictionary is not changed).
+     */
+    public static int lookup(String term) {
+        Integer id = IDS.get(term);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Id of the term if it is known, its overflow id otherwise; the dictionary is not
+     * changed. For terms that only need to match the ids of analyzed pages, such as
+     * query terms.
+     */
+    public static int find(String term) {
+        Integer id = IDS.get(term);
+        return id != null ? id : overflowId(term);
+    }
+
+    /**
+     * The term with the given id, or null for an overflow id.
+     */
+    public static String term(int id) {
+        return id >= 0 ? terms[id] : null;
+    }
+
+    /** Id of a term that is not in the full dictionary: negative, and the same on every call. */
+    static int overflowId(String term) {
+        return term.hashCode() | Integer.MIN_VALUE;
+    }
+
+    /** Number of distinct terms seen so far. */
+    public static int size() {
+        return IDS.size();
+    }
+
+    /**
+     * Small direct-mapped cache in front of the dictionary for looking up terms
+     * straight from a token buffer. Within one text most tokens repeat, so a hit costs
+     * a hash and a char comparison, and a String is only built on a miss. Not thread
+     * safe: use one per text being tokenized.
+     */
+    public static final class LocalCache {
+        private static final int SLOTS = 1024;
+
+        private final char[][] keys = new char[SLOTS][];
+        private final int[] ids = new int[SLOTS];
+
+        public int id(char[] buffer, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) hash = 31 * hash + buffer[i];
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+
+            char[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, buffer, 0, length)) return ids[slot];
+
+            key = Arrays.copyOf(buffer, length);
+            int id = TermDictionary.id(new String(key));
+            keys[slot] = key;
+            ids[slot] = id;
+            return id;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.stage3;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.cjk.CJKWidthFilter;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.en.KStemFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * TextAnalysis
+ * The one Lucene analysis chain used to tokenize page text, queries and keywords:
+ * runs of letters and digits, CJK full/half-width folding, lowercasing, overlapping
+ * bigrams for Chinese and Japanese (CjkBigramFilter) and, if isoogle.analysis.stemming
+ * is set, KStem stemming.
+ *
+ * The Analyzer keeps its tokenizer and filters per thread and resets them for each
+ * text, so tokens are read from the reused term attribute buffer; callers get the
+ * characters, not a String per token. Stopwords are not removed here, so token
+ * positions stay faithful to the text; STOPWORDS is the shared list for callers that
+ * filter them.
+ */
+public final class TextAnalysis {
+
+    /** Lucene's English stopwords plus a few prepositions. */
+    public static final CharArraySet STOPWORDS;
+
+    static {
+        CharArraySet custom = new CharArraySet(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET, true);
+        custom.add("from");
+        custom.add("about");
+        custom.add("into");
+        custom.add("through");
+        STOPWORDS = CharArraySet.unmodifiableSet(custom);
+    }
+
+    private static final boolean STEMMING = Boolean.parseBoolean(System.getProperty("isoogle.analysis.stemming", "false"));
+    private static final String FIELD = "text";
+
+    private static final Analyzer ANALYZER = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer source = CharTokenizer.fromTokenCharPredicate(Character::isLetterOrDigit);
+            TokenStream result = new CJKWidthFilter(source);
+            result = new LowerCaseFilter(result);
+            result = new CjkBigramFilter(result);
+            if (STEMMING) result = new KStemFilter(result);
+            return new TokenStreamComponents(source, result);
+        }
+    };
+
+    /**
+     * Receives each token; the buffer is only valid during the call.
+     */
+    public interface TokenConsumer {
+        void accept(char[] buffer, int length, int startOffset, int endOffset);
+    }
+
+    private TextAnalysis() {
+    }
+
+    /**
+     * Runs the analysis chain over the text and hands every token to the consumer.
+     */
+    public static void analyze(String text, TokenConsumer consumer) {
+        try (TokenStream stream = ANALYZER.tokenStream(FIELD, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                consumer.accept(term.buffer(), term.length(), offset.startOffset(), offset.endOffset());
+            }
+            stream.end();
+        } catch (IOException e) {
+            // Reading from a String does not fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * True for Han, Hiragana and Katakana characters, the scripts split into bigrams.
+     */
+    public static boolean isCjk(int codePoint) {
+        if (codePoint < 0x3040) return false;  // below Hiragana: no CJK letters
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+            || script == Character.UnicodeScript.HIRAGANA
+            || script == Character.UnicodeScript.KATAKANA;
+    }
+}
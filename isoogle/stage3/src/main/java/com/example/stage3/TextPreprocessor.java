@@ -1,5 +1,7 @@
 package com.example.stage3;
 
+import com.example.stage2.HtmlPageParser;
+
 /**
  * TextPreprocessor
  * Cleans HTML content and converts it into plain searchable text.
@@ -7,17 +9,10 @@ package com.example.stage3;
 public class TextPreprocessor {
 
     /**
-     * Process raw HTML content into cleaned searchable text.
+     * Process raw HTML content into cleaned searchable text, in a single pass (see HtmlPageParser).
      */
     public static String cleanHTML(String html) {
         if (html == null) return "";
-
-        html = html.replaceAll("(?is)<script.*?>.*?</script>", " ");
-        html = html.replaceAll("(?is)<style.*?>.*?</style>", " ");
-        html = html.replaceAll("<[^>]+>", " ");
-        html = html.replaceAll("[^a-zA-Z0-9\\u4e00-\\u9fa5 ]", " ");
-        html = html.replaceAll("\\s{2,}", " ");
-
-        return html.trim();
+        return HtmlPageParser.parse(html, null).getCleanText();
     }
 }
@@ -0,0 +1,30 @@
+package com.example.stage3;
+
+import java.io.IOException;
+
+/**
+ * UnsupportedContentException
+ * Thrown when a response is refused from its headers alone: a non-text content type
+ * or a declared body larger than the configured maximum.
+ */
+public class UnsupportedContentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String url;
+    private final String reason;
+
+    public UnsupportedContentException(String url, String reason) {
+        super(reason + ": " + url);
+        this.url = url;
+        this.reason = reason;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
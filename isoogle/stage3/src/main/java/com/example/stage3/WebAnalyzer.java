@@ -1,11 +1,20 @@
 package com.example.stage3;
 
+import com.example.stage2.HostHealthTracker;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * WebAnalyzer
@@ -16,57 +25,212 @@ public class WebAnalyzer {
     private static final int MAX_SUB_PAGES = 2;
     private static final long MAX_SUBLINK_TIME_MS = 3000;  // 3 seconds max for all sublinks per site
     private static final long MAX_SITE_TIME_MS = 5000;     // 5 seconds max per site (main + sublinks)
+    private static final boolean CONCURRENT_ANALYSIS = true; // analyze sites and sub-pages on virtual threads
+    private static final boolean STREAMING_ANALYSIS = true;  // clean and count pages while they download
+    private static final boolean PIPELINED_SUB_PAGES = true; // start sub-page fetches while the root page streams
+    // count and rank only the main content of pages, not menus, footers and sidebars;
+    // opt-in, since it keeps a copy of each page's HTML for the DOM pass
+    private static final boolean MAIN_CONTENT_ONLY = Boolean.parseBoolean(System.getProperty("isoogle.analysis.mainContent", "false"));
 
     /**
      * Analyze multiple URLs and return their results.
      */
     public static List<WebPageResult> analyzeSites(List<String> urls, List<String> keywords) {
+        return analyzeSites(urls, keywords, CONCURRENT_ANALYSIS);
+    }
+
+    /**
+     * Analyze multiple URLs, either one after another or concurrently.
+     * In concurrent mode every site (and its sub-pages) runs on its own virtual thread,
+     * so total latency is bounded by the slowest site. Results keep the input order.
+     */
+    public static List<WebPageResult> analyzeSites(List<String> urls, List<String> keywords, boolean concurrent) {
         List<WebPageResult> results = new ArrayList<>();
 
-        for (String url : urls) {
-            long siteStartTime = System.currentTimeMillis();
-            System.out.println("\n=== Fetching: " + url + " ===");
-            WebPageResult rootResult = analyzeSinglePage(url, keywords);
-            
-            // Check if main page fetch already exceeded time limit
+        if (!concurrent) {
+            for (String url : urls) {
+                results.add(analyzeSite(url, keywords, false));
+            }
+            return results;
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<WebPageResult>> futures = new ArrayList<>();
+            for (String url : urls) {
+                futures.add(executor.submit(() -> analyzeSite(url, keywords, true)));
+            }
+
+            for (int i = 0; i < urls.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(emptyResult(urls.get(i)));
+                } catch (ExecutionException e) {
+                    System.out.println("[ERROR] Site analysis failed: " + urls.get(i));
+                    results.add(emptyResult(urls.get(i)));
+                }
+            }
+        }
+
+        if (HttpFetchClient.isHedgingEnabled()) {
+            System.out.println("[INFO] Hedging: " + HttpFetchClient.hedgeStats());
+        }
+        return results;
+    }
+
+    /**
+     * Analyze one site: the root page followed by up to MAX_SUB_PAGES same-domain sub-pages.
+     */
+    private static WebPageResult analyzeSite(String url, List<String> keywords, boolean concurrentSubPages) {
+        long siteStartTime = System.currentTimeMillis();
+        System.out.println("\n=== Fetching: " + url + " ===");
+        if (concurrentSubPages && STREAMING_ANALYSIS && PIPELINED_SUB_PAGES && !isYouTubeUrl(url)) {
+            return analyzeSitePipelined(url, keywords, siteStartTime);
+        }
+        WebPageResult rootResult = analyzeSinglePage(url, keywords);
+
+        // Check if main page fetch already exceeded time limit
+        if (System.currentTimeMillis() - siteStartTime > MAX_SITE_TIME_MS) {
+            System.out.println("  [TIMEOUT] Main page took too long, skipping sublinks");
+            return rootResult;
+        }
+
+        if (isYouTubeUrl(url)) {
+            return rootResult;
+        }
+
+        System.out.println("  [Info] Scanning for sub-pages...");
+        List<LinkCandidate> candidates = rootResult.getLinkCandidates() != null
+                ? rootResult.getLinkCandidates()
+                : HTMLFetcher.extractLinkCandidates(rootResult.getRawHTML(), url);
+
+        // Sub-pages share the root's host: don't spend the site budget on an open circuit
+        if (HostHealthTracker.isBlocked(url)) {
+            System.out.println("  [SKIP] Unhealthy host, skipping sub-pages: " + HostHealthTracker.describe(url));
+            return rootResult;
+        }
+        // Most promising links first, so the MAX_SUB_PAGES budget skips nav and boilerplate pages
+        List<String> subLinks = LinkScorer.rank(candidates, keywords).stream()
+                .map(LinkCandidate::getUrl)
+                .filter(link -> !HostHealthTracker.isBlocked(link))
+                .toList();
+
+        int count = concurrentSubPages
+                ? analyzeSubPagesConcurrently(rootResult, subLinks, keywords, siteStartTime)
+                : analyzeSubPages(rootResult, subLinks, keywords, siteStartTime);
+        System.out.println("  [Info] Finished sub-pages. Found: " + count);
+
+        return rootResult;
+    }
+
+    /**
+     * Analyze one site with sub-page fetches overlapping the root page: links are handed
+     * to a SubPagePrefetcher as the root HTML streams in, so strongly relevant sub-pages
+     * are already downloading while the root is still being read.
+     */
+    private static WebPageResult analyzeSitePipelined(String url, List<String> keywords, long siteStartTime) {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SubPagePrefetcher prefetcher = new SubPagePrefetcher(executor, link -> analyzeSinglePage(link, keywords, null), keywords,
+                    MAX_SUB_PAGES, MAX_SUBLINK_TIME_MS, siteStartTime + MAX_SITE_TIME_MS);
+
+            WebPageResult rootResult = analyzeSinglePage(url, keywords, prefetcher::offer);
+
             if (System.currentTimeMillis() - siteStartTime > MAX_SITE_TIME_MS) {
                 System.out.println("  [TIMEOUT] Main page took too long, skipping sublinks");
-                results.add(rootResult);
-                continue;
+                prefetcher.cancelAll();
+                return rootResult;
             }
+            if (HostHealthTracker.isBlocked(url)) {
+                System.out.println("  [SKIP] Unhealthy host, skipping sub-pages: " + HostHealthTracker.describe(url));
+                prefetcher.cancelAll();
+                return rootResult;
+            }
+
+            // Spend the remaining budget on the best links that were held back
+            prefetcher.fill(rootResult.getLinkCandidates());
+
+            int count = prefetcher.collect(rootResult);
+            System.out.println("  [Info] Finished sub-pages. Found: " + count);
+            return rootResult;
+        }
+    }
+
+    private static int analyzeSubPages(WebPageResult rootResult, List<String> subLinks, List<String> keywords, long siteStartTime) {
+        int count = 0;
+        for (String subLink : subLinks) {
+            if (count >= MAX_SUB_PAGES) break;
+
+            // Check both sublink time and total site time
+            long elapsed = System.currentTimeMillis() - siteStartTime;
+            if (elapsed > MAX_SITE_TIME_MS) {
+                System.out.println("  [TIMEOUT] Site processing took too long, stopping at " + count + " sublinks");
+                break;
+            }
+
+            System.out.println("    -> Fetching sub-page (" + (count + 1) + "/" + MAX_SUB_PAGES + "): " + subLink);
+
+            WebPageResult subResult = analyzeSinglePage(subLink, keywords);
+            rootResult.addChild(subResult);
+            count++;
+        }
+        return count;
+    }
 
-            if (!isYouTubeUrl(url)) {
-                System.out.println("  [Info] Scanning for sub-pages...");
-                
-                List<String> subLinks = HTMLFetcher.extractLinks(rootResult.getRawHTML(), url);
-                
-                int count = 0;
-                for (String subLink : subLinks) {
-                    if (count >= MAX_SUB_PAGES) break;
-                    
-                    // Check both sublink time and total site time
-                    long elapsed = System.currentTimeMillis() - siteStartTime;
-                    if (elapsed > MAX_SITE_TIME_MS) {
-                        System.out.println("  [TIMEOUT] Site processing took too long, stopping at " + count + " sublinks");
-                        break;
-                    }
-                    
-                    System.out.println("    -> Fetching sub-page (" + (count + 1) + "/" + MAX_SUB_PAGES + "): " + subLink);
-                    
-                    WebPageResult subResult = analyzeSinglePage(subLink, keywords);
-                    rootResult.addChild(subResult);
+    /**
+     * Fetch the selected sub-pages in parallel and wait for them until the sub-link
+     * or site deadline, whichever comes first. Late sub-pages are cancelled.
+     */
+    private static int analyzeSubPagesConcurrently(WebPageResult rootResult, List<String> subLinks, List<String> keywords, long siteStartTime) {
+        List<String> selected = subLinks.subList(0, Math.min(MAX_SUB_PAGES, subLinks.size()));
+        long deadline = Math.min(siteStartTime + MAX_SITE_TIME_MS, System.currentTimeMillis() + MAX_SUBLINK_TIME_MS);
+        int count = 0;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<WebPageResult>> futures = new ArrayList<>();
+            for (int i = 0; i < selected.size(); i++) {
+                String subLink = selected.get(i);
+                System.out.println("    -> Fetching sub-page (" + (i + 1) + "/" + MAX_SUB_PAGES + "): " + subLink);
+                futures.add(executor.submit(() -> analyzeSinglePage(subLink, keywords)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    long remaining = deadline - System.currentTimeMillis();
+                    rootResult.addChild(futures.get(i).get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
                     count++;
+                } catch (TimeoutException e) {
+                    System.out.println("  [TIMEOUT] Site processing took too long, stopping at " + count + " sublinks");
+                    for (Future<WebPageResult> f : futures.subList(i, futures.size())) f.cancel(true);
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (Future<WebPageResult> f : futures.subList(i, futures.size())) f.cancel(true);
+                    break;
+                } catch (ExecutionException e) {
+                    System.out.println("    [ERROR] Sub-page analysis failed: " + selected.get(i));
                 }
-                System.out.println("  [Info] Finished sub-pages. Found: " + count);
             }
-
-            results.add(rootResult);
         }
+        return count;
+    }
 
-        return results;
+    private static WebPageResult emptyResult(String url) {
+        WebPageResult result = new WebPageResult(url);
+        result.setRawHTML("");
+        result.setCleanText("");
+        result.setWordCountMap(new HashMap<>());
+        return result;
     }
 
     private static WebPageResult analyzeSinglePage(String url, List<String> keywords) {
+        return analyzeSinglePage(url, keywords, null);
+    }
+
+    /**
+     * @param onLink receives each same-domain link as soon as the streaming scanner sees it (may be null)
+     */
+    private static WebPageResult analyzeSinglePage(String url, List<String> keywords, Consumer<LinkCandidate> onLink) {
         WebPageResult pageResult = new WebPageResult(url);
         String cleanText = "";
 
@@ -76,12 +240,32 @@ public class WebAnalyzer {
             pageResult.setRawHTML(transcript);
             cleanText = transcript;
             pageResult.setCleanText(cleanText);
+            pageResult.setAnalyzedDocument(AnalyzedDocument.of(cleanText));
+        } else if (STREAMING_ANALYSIS) {
+            System.out.println("[INFO] Detected regular webpage - streaming HTML...");
+            StreamingPageAnalyzer.Result analysis = HTMLFetcher.streamHTML(url,
+                    html -> MAIN_CONTENT_ONLY
+                            ? StreamingPageAnalyzer.analyzeMainContent(html, url, keywords, onLink)
+                            : StreamingPageAnalyzer.analyze(html, url, keywords, onLink),
+                    StreamingPageAnalyzer.Result.empty(keywords));
+            pageResult.setCleanText(analysis.getCleanText());
+            pageResult.setWordCountMap(analysis.getWordCountMap());
+            pageResult.setLinkCandidates(analysis.getLinkCandidates());
+            pageResult.setAnalyzedDocument(analysis.toAnalyzedDocument());
+            return pageResult;
         } else {
             System.out.println("[INFO] Detected regular webpage - fetching HTML...");
             String rawHTML = HTMLFetcher.fetchHTML(url);
             pageResult.setRawHTML(rawHTML);
-            cleanText = TextPreprocessor.cleanHTML(rawHTML);
-            pageResult.setCleanText(cleanText);
+            // One pass over the HTML for text, keyword counts and links
+            StreamingPageAnalyzer.Result analysis = MAIN_CONTENT_ONLY
+                    ? StreamingPageAnalyzer.analyzeMainContent(rawHTML, url, keywords, null)
+                    : StreamingPageAnalyzer.analyze(rawHTML, url, keywords);
+            pageResult.setCleanText(analysis.getCleanText());
+            pageResult.setWordCountMap(analysis.getWordCountMap());
+            pageResult.setLinkCandidates(analysis.getLinkCandidates());
+            pageResult.setAnalyzedDocument(analysis.toAnalyzedDocument());
+            return pageResult;
         }
 
         Map<String, Integer> wordCountMap = WordCounter.countWords(cleanText, keywords);
@@ -97,17 +281,20 @@ public class WebAnalyzer {
         
         GoogleQuery gq = new GoogleQuery(); 
         String fullQuery = userKeywords + " International Organization of Standardization";
-        HashMap<String, String> urlsToAnalyze = gq.query(fullQuery, numResults); 
+        List<CseResult> cseResults = gq.query(fullQuery, numResults);
 
-        List<String> urls = new ArrayList<>(urlsToAnalyze.values());
+        List<String> urls = new ArrayList<>();
+        for (CseResult cseResult : cseResults) {
+            urls.add(cseResult.getLink());
+        }
         List<WebPageResult> analyzedResults = analyzeSites(urls, keywords);
 
         List<SearchResult> searchResults = new ArrayList<>();
 
         int index = 0;
-        for (Map.Entry<String, String> entry : urlsToAnalyze.entrySet()) {
-            String title = entry.getKey();
-            String url = entry.getValue();
+        for (CseResult cseResult : cseResults) {
+            String title = cseResult.getTitle();
+            String url = cseResult.getLink();
 
             WebPageResult root = analyzedResults.get(index);
             
@@ -115,17 +302,23 @@ public class WebAnalyzer {
             
             // Aggregate all text: main page + sublinks
             StringBuilder aggregatedContent = new StringBuilder(root.getCleanText());
+            List<AnalyzedDocument> documents = new ArrayList<>();
+            documents.add(analyzedDocument(root));
             
             for (WebPageResult child : root.getChildren()) {
                 totalSiteScore += calculatePageScore(child, keywordWeights);
                 // Append sublink content with separator
                 aggregatedContent.append("\n\n").append(child.getCleanText());
+                documents.add(analyzedDocument(child));
             }
             
             SearchResult searchResult = new SearchResult(title, url);
             searchResult.setRankScore(totalSiteScore);
+            searchResult.setSnippet(cseResult.getSnippet());
+            searchResult.setCseRank(cseResult.getRank());
             String agg = aggregatedContent.toString();
             searchResult.setContent(agg);
+            searchResult.setAnalyzedDocument(AnalyzedDocument.concat(documents));
 
             // Log if the aggregated content is empty (fetch failures or no textual content)
             if (agg == null || agg.trim().isEmpty()) {
@@ -136,11 +329,17 @@ public class WebAnalyzer {
             index++;
         }
 
+        // Stable sort: equal scores keep Google's order
         Collections.sort(searchResults, Comparator.comparingDouble(SearchResult::getRankScore).reversed());
 
         return searchResults;
     }
 
+    private static AnalyzedDocument analyzedDocument(WebPageResult page) {
+        AnalyzedDocument doc = page.getAnalyzedDocument();
+        return doc != null ? doc : AnalyzedDocument.of(page.getCleanText());
+    }
+
     private static int calculatePageScore(WebPageResult page, Map<String, Integer> keywordWeights) {
         int score = 0;
         Map<String, Integer> counts = page.getWordCountMap(); 
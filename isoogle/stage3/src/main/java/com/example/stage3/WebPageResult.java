@@ -16,6 +16,8 @@ public class WebPageResult {
     private Map<String, Integer> wordCountMap;
     private int score = 0;
     private List<WebPageResult> children;
+    private List<LinkCandidate> linkCandidates;
+    private AnalyzedDocument analyzedDocument;
 
     public WebPageResult(String url) {
         this.url = url;
@@ -38,6 +40,14 @@ public class WebPageResult {
         this.score = score;
     }
 
+    public void setLinkCandidates(List<LinkCandidate> linkCandidates) {
+        this.linkCandidates = linkCandidates;
+    }
+
+    public void setAnalyzedDocument(AnalyzedDocument analyzedDocument) {
+        this.analyzedDocument = analyzedDocument;
+    }
+
     public void addChild(WebPageResult child) {
         this.children.add(child);
     }
@@ -66,6 +76,21 @@ public class WebPageResult {
         return children;
     }
 
+    /**
+     * Same-domain links collected while the page was streamed, or null if the page
+     * was analyzed from its raw HTML.
+     */
+    public List<LinkCandidate> getLinkCandidates() {
+        return linkCandidates;
+    }
+
+    /**
+     * Clean text tokenized once, or null for pages that were not analyzed.
+     */
+    public AnalyzedDocument getAnalyzedDocument() {
+        return analyzedDocument;
+    }
+
     @Override
     public String toString() {
         return "URL: " + url + "\n"
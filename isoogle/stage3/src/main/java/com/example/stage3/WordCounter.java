@@ -1,16 +1,12 @@
 package com.example.stage3;
 
-import java.text.Normalizer;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * WordCounter
- * Counts occurrences of keywords inside a plain cleaned string.
+ * Counts occurrences of keywords inside a plain cleaned string (see KeywordMatcher).
  */
 public class WordCounter {
 
@@ -26,40 +22,10 @@ public class WordCounter {
             return result;
         }
 
-        // Normalize to NFKC and lowercase for stable matching
-        String normText = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
-
-        // Precompute a unicode-aware token stream for Latin to allow word-boundary matching
-        for (String rawKey : keywords) {
-            if (rawKey == null || rawKey.trim().isEmpty()) continue;
-            String key = Normalizer.normalize(rawKey, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).trim();
-
-            int count = 0;
-
-            // Detect CJK presence in keyword: if contains Han/Hiragana/Katakana use substring matching
-            boolean isCJK = key.codePoints().anyMatch(cp -> {
-                Character.UnicodeScript s = Character.UnicodeScript.of(cp);
-                return s == Character.UnicodeScript.HAN || s == Character.UnicodeScript.HIRAGANA || s == Character.UnicodeScript.KATAKANA;
-            });
-
-            if (isCJK) {
-                // literal substring count
-                int idx = 0;
-                while ((idx = normText.indexOf(key, idx)) != -1) {
-                    count++;
-                    idx += Math.max(1, key.length());
-                }
-            } else {
-                // Use word-boundary regex for Latin and other scripts
-                String pattern = "\\b" + Pattern.quote(key) + "\\b";
-                Pattern p = Pattern.compile(pattern, Pattern.UNICODE_CHARACTER_CLASS);
-                Matcher m = p.matcher(normText);
-                while (m.find()) count++;
-            }
-
-            result.put(rawKey, count);
-        }
-
-        return result;
+        // Normalize to NFKC and lowercase for stable matching (skipped for ASCII and
+        // already-normalized text), then count every keyword in one pass. Keywords are
+        // normalized and classified once per keyword list, in the cached matcher.
+        String normText = KeywordMatcher.normalizeText(text);
+        return KeywordMatcher.of(keywords).count(normText);
     }
 }
@@ -7,6 +7,10 @@ package com.example.stage3;
 public class YouTubeTranscriptFetcher {
 
     public static String fetchTranscript(String url) {
+        return MemoryPageCache.getOrFetch("yt:" + url, MemoryPageCache.TRANSCRIPT_TTL, () -> fetchUncached(url));
+    }
+
+    private static String fetchUncached(String url) {
         // Placeholder: YouTube transcript fetching logic
         // In production, this would call the Python script or use a library
         System.out.println("[INFO] YouTube transcript fetching not fully implemented");
@@ -0,0 +1,81 @@
+package com.example.stage3;
+
+import com.example.stage2.HostHealthTracker;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Cancelling a fetch while its body is streaming must not count against the host.
+ */
+class HTMLFetcherCancellationTests {
+
+    private HttpServer server;
+    private String url;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/slow", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("<html><body><p>first chunk</p>".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(5_000);  // the rest of the body never arrives in time
+            } catch (Exception ignore) {
+                // client went away
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());  // one slow exchange must not hold up the next
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow?run=" + System.nanoTime();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void interruptedBodyReadsDoNotBlockTheHost() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            CountDownLatch reading = new CountDownLatch(1);
+            AtomicBoolean started = new AtomicBoolean();
+            Thread fetch = Thread.ofVirtual().start(() -> {
+                HTMLFetcher.streamHTML(url, html -> {
+                    char[] buffer = new char[16];
+                    html.read(buffer);
+                    started.set(true);
+                    reading.countDown();
+                    while (html.read(buffer) >= 0) {
+                        // drain until cancelled
+                    }
+                    return "done";
+                }, "failed");
+                reading.countDown();
+            });
+
+            assertTrue(reading.await(10, TimeUnit.SECONDS), "body never started streaming");
+            assertTrue(started.get(), "fetch " + i + " did not start: " + HostHealthTracker.describe(url));
+            fetch.interrupt();
+            fetch.join(10_000);
+            assertFalse(fetch.isAlive(), "fetch did not stop after interrupt");
+        }
+
+        assertFalse(HostHealthTracker.isBlocked(url), HostHealthTracker.describe(url));
+    }
+}
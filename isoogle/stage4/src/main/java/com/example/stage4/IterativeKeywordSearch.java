@@ -100,12 +100,13 @@ public class IterativeKeywordSearch {
         // Extract keywords from top results
         List<String> derivedKeywords = new ArrayList<>();
         
+        List<AnalyzedDocument> topDocuments = new ArrayList<>();
         for (int i = 0; i < Math.min(INITIAL_RESULTS, results1.size()); i++) {
-            SearchResult sr = results1.get(i);
-            String content = sr.getContent() != null ? sr.getContent() : "";
-            
-            List<String> extracted = KeywordExtractor.extractKeywordsWithContext(content, KEYWORDS_PER_PAGE, userKeywords);
-            
+            topDocuments.add(results1.get(i).getAnalyzedDocument());
+        }
+        
+        // Pages are processed in parallel; results come back in page order
+        for (List<String> extracted : KeywordExtractor.extractKeywordsWithContext(topDocuments, KEYWORDS_PER_PAGE, userKeywords)) {
             // Filter out duplicate keywords 
             for (String keyword : extracted) {
                 if (!allKeywords.contains(keyword.toLowerCase())) {
@@ -140,7 +141,15 @@ public class IterativeKeywordSearch {
             result.combinedQuery = combinedQuery;
             
             String fullQuery2 = String.join(" ", combinedQuery);
-            List<SearchResult> results2 = SearchService.searchAndRank(fullQuery2, FINAL_RESULTS, iteration2Weights);
+            // Expansion is optional work: it yields CSE quota to interactive searches
+            List<SearchResult> results2;
+            try {
+                results2 = CseQuotaGovernor.runAs(CseQuotaGovernor.Priority.BACKGROUND,
+                        () -> SearchService.searchAndRank(fullQuery2, FINAL_RESULTS, iteration2Weights));
+            } catch (CseQuotaExceededException e) {
+                result.logs.add("Iteration 2 skipped: " + e.getMessage());
+                results2 = new ArrayList<>();
+            }
             result.logs.add("Iteration 2: Expanded search with " + combinedQuery.size() + " keywords, found " + results2.size() + " results");
             
             // Merge new results
@@ -1,9 +1,12 @@
 package com.example.stage4;
 
+import com.example.stage3.AnalyzedDocument;
+import com.example.stage3.SparseVector;
+import com.example.stage3.TextAnalysis;
 import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -13,27 +16,21 @@ import java.util.stream.Collectors;
  */
 public class KeywordExtractor {
     
-    private static final CharArraySet STOPWORDS;
+    private static final CharArraySet STOPWORDS = TextAnalysis.STOPWORDS;
     
-    static {
-        CharArraySet custom = new CharArraySet(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET, true);
-        custom.add("from");
-        custom.add("about");
-        custom.add("into");
-        custom.add("through");
-        STOPWORDS = CharArraySet.unmodifiableSet(custom);
-    }
+    // common HTML entity names and fragments seen in output
+    private static final Set<String> HTML_ENTITIES = Set.of(
+        "nbsp", "amp", "lt", "gt", "quot", "apos", "oacute", "rdquo", "ldquo", "rsquo",
+        "ndash", "mdash", "hellip", "cent", "pound", "eacute", "uuml", "ouml");
     
-    /**
-     * Detect if text contains primarily non-Latin characters
-     */
-    private static boolean isNonLatin(String text) {
-        if (text == null || text.isEmpty()) return false;
-        long nonLatinCount = text.chars()
-            .filter(c -> c > 0x024F) // Beyond Latin Extended-B
-            .count();
-        return nonLatinCount > text.length() * 0.3; // >30% non-Latin
-    }
+    // Stopword/digit/entity verdict per TermDictionary id, filled in on first sight.
+    // Term ids are dense, so the id itself is a collision-free index into the table.
+    // CJK bigrams (see TextAnalysis) are words whatever the minimum length.
+    private static final byte UNKNOWN = 0;
+    private static final byte WORD = 1;
+    private static final byte NOISE = 2;
+    private static final byte CJK_BIGRAM = 3;
+    private static volatile byte[] termClass = new byte[1 << 14];
     
     /**
      * Extract top N keywords from text based on term frequency (Filter out stopwords and very short words)
@@ -46,43 +43,24 @@ public class KeywordExtractor {
         if (text == null || text.isEmpty()) {
             return new ArrayList<>();
         }
-        
-        boolean isNonLatin = isNonLatin(text);
-        
-        // Tokenize based on script
-        String[] words;
-        if (isNonLatin) {
-            // For CJK languages, keep all Unicode characters
-            words = text.toLowerCase()
-                .replaceAll("[\\p{Punct}\\s]+", " ")
-                .split("\\s+");
-        } else {
-            // For Latin scripts, keep only a-z and accented characters
-            words = text.toLowerCase()
-                .replaceAll("[^\\p{L}0-9\\s]", " ")
-                .split("\\s+");
+        return extractKeywords(AnalyzedDocument.of(text), topN);
+    }
+
+    /**
+     * Same as extractKeywords(String, int), over a page that is already tokenized.
+     */
+    public static List<String> extractKeywords(AnalyzedDocument doc, int topN) {
+        if (doc == null || doc.getTokenCount() == 0) {
+            return new ArrayList<>();
         }
         
-        // Count word frequencies 
-        Map<String, Integer> wordFreq = new HashMap<>();
-        for (String word : words) {
-            
-            int minLength = isNonLatin ? 2 : 3;
-            // Filter out noisy HTML entity tokens (e.g., nbsp, oacute) and very short tokens
-            if (word.length() > minLength && 
-                !STOPWORDS.contains(word) && 
-                !word.matches(".*\\d.*") &&
-                !isLikelyHtmlEntityToken(word)) {
-                wordFreq.put(word, wordFreq.getOrDefault(word, 0) + 1);
-            }
-        }
+        boolean isNonLatin = doc.isNonLatin();
+        int minLength = isNonLatin ? 2 : 3;
         
-        // Sort by frequency and return top N
-        return wordFreq.entrySet().stream()
-            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-            .limit(topN)
-            .map(Map.Entry::getKey)
-            .collect(Collectors.toList());
+        // Word frequencies are the page's term vector; the filters run once per distinct word
+        // Filter out noisy HTML entity tokens (e.g., nbsp, oacute) and very short tokens
+        return topByFrequency(doc, doc.getTermVector(), topN,
+            id -> isCandidate(doc, id, minLength));
     }
     
     /**
@@ -95,8 +73,19 @@ public class KeywordExtractor {
      * @return List of extracted keywords that appear near context keywords
      */
     public static List<String> extractKeywordsWithContext(String text, int topN, List<String> contextKeywords) {
-        if (text == null || text.isEmpty() || contextKeywords == null || contextKeywords.isEmpty()) {
-            return extractKeywords(text, topN);
+        if (text == null || text.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return extractKeywordsWithContext(AnalyzedDocument.of(text), topN, contextKeywords);
+    }
+
+    /**
+     * Same as extractKeywordsWithContext(String, int, List), over a page that is already
+     * tokenized; its sentences are the chunks.
+     */
+    public static List<String> extractKeywordsWithContext(AnalyzedDocument doc, int topN, List<String> contextKeywords) {
+        if (doc == null || doc.getTokenCount() == 0 || contextKeywords == null || contextKeywords.isEmpty()) {
+            return extractKeywords(doc, topN);
         }
         
         // Filter out ISO organization terms 
@@ -105,80 +94,64 @@ public class KeywordExtractor {
         
         for (String kw : contextKeywords) {
             if (!isoOrgTerms.contains(kw.toLowerCase())) {
-                filteredContext.add(kw);
+                filteredContext.add(kw.toLowerCase());
             }
         }
         
         // If no meaningful context keywords remain, use basic extraction
         if (filteredContext.isEmpty()) {
-            return extractKeywords(text, topN);
+            return extractKeywords(doc, topN);
         }
         
-        // Split into sentences/chunks
-        String[] chunks = text.toLowerCase().split("[.!?\\n]+");
-        Map<String, Integer> contextualWordFreq = new HashMap<>();
+        Set<String> contextTerms = new HashSet<>(filteredContext);
+        // A CJK keyword is also excluded as the bigrams it is tokenized into
+        for (String kw : filteredContext) {
+            TextAnalysis.analyze(kw, (buffer, length, start, end) -> {
+                if (TextAnalysis.isCjk(Character.codePointAt(buffer, 0, length))) contextTerms.add(new String(buffer, 0, length));
+            });
+        }
+        int[] contextualWords = new int[doc.getTokenCount()];
+        int contextualCount = 0;
         
-        // Only count words that appear in chunks containing context keywords
+        // Only count words that appear in sentences containing context keywords
         // Use ALL logic for single/few keywords, ANY logic for many keywords
         boolean useStrictMatching = filteredContext.size() <= 2;
         
-        for (String chunk : chunks) {
-            boolean isRelevantChunk = false;
-            
-            if (useStrictMatching) {
+        // Relevant sentences come from the document's term -> sentences index:
+        // intersection of the keywords' postings (strict) or their union (relaxed)
+        int[] relevant = null;
+        for (String contextKw : filteredContext) {
+            int[] postings = sentencesContaining(doc, contextKw);
+            if (relevant == null) {
+                relevant = postings;
+            } else if (useStrictMatching) {
                 // Require ALL context keywords (strict for focused queries like "camera iso")
-                isRelevantChunk = true;
-                for (String contextKw : filteredContext) {
-                    if (!chunk.contains(contextKw.toLowerCase())) {
-                        isRelevantChunk = false;
-                        break;
-                    }
-                }
+                relevant = intersect(relevant, postings);
             } else {
                 // Require ANY context keyword (relaxed for broad queries)
-                for (String contextKw : filteredContext) {
-                    if (chunk.contains(contextKw.toLowerCase())) {
-                        isRelevantChunk = true;
-                        break;
-                    }
-                }
+                relevant = union(relevant, postings);
             }
-            
-            if (isRelevantChunk) {
-                boolean isNonLatin = isNonLatin(chunk);
-                String[] words;
-                
-                if (isNonLatin) {
-                    words = chunk.replaceAll("[\\p{Punct}\\s]+", " ").split("\\s+");
-                } else {
-                    words = chunk.replaceAll("[^\\p{L}0-9\\s]", " ").split("\\s+");
-                }
-                
-                int minLength = isNonLatin ? 2 : 3;
-                
-                for (String word : words) {
-                    if (word.length() > minLength && !STOPWORDS.contains(word) && !word.matches(".*\\d.*") && !isoOrgTerms.contains(word)) {
-                        // filter html-entity-like tokens
-                        if (isLikelyHtmlEntityToken(word)) continue;
-                        // Skip if it's already a context keyword
-                        boolean isContextKw = false;
-                        for (String contextKw : filteredContext) {
-                            if (word.equals(contextKw.toLowerCase())) {
-                                isContextKw = true;
-                                break;
-                            }
-                        }
-                        if (!isContextKw) {
-                            contextualWordFreq.put(word, contextualWordFreq.getOrDefault(word, 0) + 1);
-                        }
-                    }
-                }
+            if (useStrictMatching && relevant.length == 0) break;
+        }
+        
+        for (int s : relevant) {
+            int minLength = doc.isNonLatin(s) ? 2 : 3;
+            for (int i = doc.getSentenceStart(s); i < doc.getSentenceEnd(s); i++) {
+                int id = doc.getTermId(i);
+                if (isLongEnough(doc, id, minLength)) contextualWords[contextualCount++] = id;
             }
         }
         
+        // Remaining filters once per distinct word; skip ISO terms and words that are already context keywords
+        List<String> contextual = topByFrequency(doc, SparseVector.of(contextualWords, contextualCount), topN, id -> {
+            if (!isCandidate(doc, id, 2)) return false;
+            String word = doc.getTerm(id);
+            return !isoOrgTerms.contains(word) && !contextTerms.contains(word);
+        });
+        
         // If no contextual keywords found, fall back to basic extraction with ISO terms filtered
-        if (contextualWordFreq.isEmpty()) {
-            List<String> basicKeywords = extractKeywords(text, topN * 2);
+        if (contextual.isEmpty()) {
+            List<String> basicKeywords = extractKeywords(doc, topN * 2);
             return basicKeywords.stream()
                 .filter(kw -> !isoOrgTerms.contains(kw.toLowerCase()))
                 .limit(topN)
@@ -186,37 +159,237 @@ public class KeywordExtractor {
         }
         
         // Return top N contextual keywords
-        return contextualWordFreq.entrySet().stream()
-            .sorted((a, b) -> b.getValue().compareTo(a.getValue()))
-            .limit(topN)
-            .map(Map.Entry::getKey)
+        return contextual;
+    }
+    
+    /**
+     * Sentences whose text contains the keyword. A keyword that analyzes to a single
+     * token can only occur inside a token, so the postings of the matching terms are
+     * merged. A keyword of several tokens ("iso-9001", or a CJK word split into
+     * bigrams) can only occur in sentences that have all of its tokens; those are
+     * checked against the sentence text.
+     */
+    private static int[] sentencesContaining(AnalyzedDocument doc, String keyword) {
+        List<String> pieces = new ArrayList<>();
+        TextAnalysis.analyze(keyword, (buffer, length, start, end) -> pieces.add(new String(buffer, 0, length)));
+        
+        if (pieces.size() == 1 && pieces.get(0).equals(keyword)) {
+            return sentencesWithTermContaining(doc, keyword);
+        }
+        
+        int[] candidates = null;
+        for (String piece : pieces) {
+            int[] postings = sentencesWithTermContaining(doc, piece);
+            candidates = candidates == null ? postings : intersect(candidates, postings);
+            if (candidates.length == 0) return candidates;
+        }
+        
+        int[] result = new int[candidates == null ? doc.getSentenceCount() : candidates.length];
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            int s = candidates == null ? i : candidates[i];
+            if (doc.getSentenceText(s).contains(keyword)) result[n++] = s;
+        }
+        return Arrays.copyOf(result, n);
+    }
+    
+    private static int[] sentencesWithTermContaining(AnalyzedDocument doc, String part) {
+        int[] result = new int[0];
+        SparseVector terms = doc.getTermVector();
+        for (int i = 0; i < terms.size(); i++) {
+            if (doc.getTerm(terms.id(i)).contains(part)) {
+                result = union(result, doc.getSentencesContaining(terms.id(i)));
+            }
+        }
+        return result;
+    }
+    
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+    
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] result = new int[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+    
+    /**
+     * extractKeywordsWithContext for several pages at once, in parallel.
+     * 
+     * @return The keywords of each page, in the order of the pages
+     */
+    public static List<List<String>> extractKeywordsWithContext(List<AnalyzedDocument> docs, int topN, List<String> contextKeywords) {
+        return docs.parallelStream()
+            .map(doc -> extractKeywordsWithContext(doc, topN, contextKeywords))
             .collect(Collectors.toList());
     }
     
     /**
      * Extract keywords from multiple texts and merge them
+     * Texts are processed in parallel
      * 
      * @param texts List of text contents
      * @param topN Number of top keywords to extract from each text
      * @return List of unique keywords
      */
     public static List<String> extractFromMultiple(List<String> texts, int topN) {
-        Set<String> allKeywords = new HashSet<>();
-        
-        for (String text : texts) {
-            List<String> keywords = extractKeywords(text, topN);
-            allKeywords.addAll(keywords);
+        return texts.parallelStream()
+            .flatMap(text -> extractKeywords(text, topN).stream())
+            .distinct()
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Long enough, not a stopword, no digits and not an HTML entity name.
+     */
+    private static boolean isCandidate(AnalyzedDocument doc, int termId, int minLength) {
+        String word = doc.getTerm(termId);
+        byte verdict = termClass(termId, word);
+        if (verdict == CJK_BIGRAM) return true;
+        return verdict == WORD && word.length() > minLength;
+    }
+
+    /** Longer than minLength, or a CJK bigram. */
+    private static boolean isLongEnough(AnalyzedDocument doc, int termId, int minLength) {
+        String word = doc.getTerm(termId);
+        return word.length() > minLength || termClass(termId, word) == CJK_BIGRAM;
+    }
+
+    private static byte termClass(int termId, String word) {
+        if (termId < 0) return classify(word);  // overflow id (TermDictionary is full): not cached
+        byte[] table = termClass;
+        if (termId >= table.length) table = growTermClass(termId);
+        byte verdict = table[termId];
+        if (verdict == UNKNOWN) {
+            // Racing threads compute the same value, so the plain write is fine
+            verdict = classify(word);
+            table[termId] = verdict;
         }
-        
-        return new ArrayList<>(allKeywords);
+        return verdict;
+    }
+
+    private static byte classify(String word) {
+        return isCjkBigram(word) ? CJK_BIGRAM : isNoise(word) ? NOISE : WORD;
+    }
+
+    private static boolean isCjkBigram(String word) {
+        if (word.codePointCount(0, word.length()) != 2) return false;
+        return TextAnalysis.isCjk(word.codePointAt(0)) && TextAnalysis.isCjk(word.codePointBefore(word.length()));
+    }
+
+    private static synchronized byte[] growTermClass(int termId) {
+        byte[] table = termClass;
+        if (termId >= table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, termId + 1));
+            termClass = table;
+        }
+        return table;
+    }
+
+    private static boolean isNoise(String word) {
+        if (STOPWORDS.contains(word)) return true;
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isDigit(word.charAt(i))) return true;
+        }
+        return isLikelyHtmlEntityToken(word);
+    }
+
+    /**
+     * The topN accepted terms of the document by count; equal counts keep term id order.
+     */
+    private static List<String> topByFrequency(AnalyzedDocument doc, SparseVector counts, int topN, IntPredicate accept) {
+        if (topN <= 0) return new ArrayList<>();
+
+        // Min-heap of the best topN (count, reversed id) pairs packed into longs:
+        // the root is the weakest of them and is replaced by anything stronger.
+        // id ^ MAX_VALUE reverses the id order, overflow (negative) ids included.
+        long[] heap = new long[Math.min(topN, counts.size())];
+        int size = 0;
+        for (int i = 0; i < counts.size(); i++) {
+            int id = counts.id(i);
+            if (!accept.test(id)) continue;
+            long entry = ((long) counts.weight(i) << 32) | ((id ^ Integer.MAX_VALUE) & 0xFFFFFFFFL);
+            if (size < heap.length) {
+                heap[size] = entry;
+                siftUp(heap, size++);
+            } else if (entry > heap[0]) {
+                heap[0] = entry;
+                siftDown(heap, size);
+            }
+        }
+
+        // Pop weakest first and fill the result from the back
+        String[] top = new String[size];
+        for (int n = size; n > 0; n--) {
+            long weakest = heap[0];
+            heap[0] = heap[n - 1];
+            siftDown(heap, n - 1);
+            top[n - 1] = doc.getTerm((int) weakest ^ Integer.MAX_VALUE);
+        }
+        return new ArrayList<>(Arrays.asList(top));
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) return;
+        long entry = heap[0];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (entry <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
     }
 
     private static boolean isLikelyHtmlEntityToken(String token) {
         if (token == null || token.isEmpty()) return false;
         String t = token.toLowerCase();
-        // common HTML entity names and fragments seen in output
-        String[] entities = {"nbsp","amp","lt","gt","quot","apos","oacute","rdquo","ldquo","rsquo","ndash","mdash","hellip","cent","pound","eacute","uuml","ouml","mdash"};
-        for (String e : entities) if (t.equals(e)) return true;
+        if (HTML_ENTITIES.contains(t)) return true;
         // tokens that are mostly non-letter or too short
         if (t.length() <= 2) return true;
         return false;
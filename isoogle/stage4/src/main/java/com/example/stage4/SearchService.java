@@ -78,9 +78,10 @@ public class SearchService {
             for (String s : userKeywords.split("\\s+")) if (!s.isBlank()) userKwList.add(s);
         }
 
-        for (SearchResult sr : initialResults) {
-            String content = sr.getContent() == null ? "" : sr.getContent();
-            List<String> extracted = KeywordExtractor.extractKeywordsWithContext(content, 3, userKwList);
+        List<AnalyzedDocument> documents = new ArrayList<>();
+        for (SearchResult sr : initialResults) documents.add(sr.getAnalyzedDocument());
+
+        for (List<String> extracted : KeywordExtractor.extractKeywordsWithContext(documents, 3, userKwList)) {
             for (String k : extracted) {
                 String lk = k.toLowerCase();
                 if (!enhancedWeights.containsKey(lk)) {
@@ -101,7 +102,16 @@ public class SearchService {
             List<String> topDerived = derivedKeywords.subList(0, Math.min(3, derivedKeywords.size()));
             String expandedQuery = userKeywords == null ? String.join(" ", topDerived) : userKeywords + " " + String.join(" ", topDerived);
 
-            List<SearchResult> finalResults = WebAnalyzer.analyzeGoogleRankedSites(expandedQuery, new ArrayList<>(enhancedWeights.keySet()), enhancedWeights, numResults);
+            // The expanded search is optional work: it yields CSE quota to interactive searches
+            List<SearchResult> finalResults;
+            try {
+                finalResults = CseQuotaGovernor.runAs(CseQuotaGovernor.Priority.BACKGROUND,
+                        () -> WebAnalyzer.analyzeGoogleRankedSites(expandedQuery, new ArrayList<>(enhancedWeights.keySet()), enhancedWeights, numResults));
+            } catch (CseQuotaExceededException e) {
+                System.out.println("[CSE] Expanded search skipped: " + e.getMessage());
+                initialResults.sort((a, b) -> b.getRankScore() - a.getRankScore());
+                return initialResults;
+            }
             finalResults.sort((a, b) -> b.getRankScore() - a.getRankScore());
 
             // attach derived keywords to each result for frontend
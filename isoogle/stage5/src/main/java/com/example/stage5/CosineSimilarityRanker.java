@@ -1,9 +1,10 @@
 package com.example.stage5;
 
+import com.example.stage3.AnalyzedDocument;
+import com.example.stage3.SparseVector;
+import com.example.stage3.TermDictionary;
+import com.example.stage3.TextAnalysis;
 import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.analysis.en.EnglishAnalyzer;
-
-import java.util.*;
 
 /**
  * CosineSimilarityRanker
@@ -11,62 +12,38 @@ import java.util.*;
  */
 public class CosineSimilarityRanker {
     
-    // Use Apache Lucene's comprehensive English stopword list with additions
-    private static final CharArraySet STOPWORDS;
-    
-    static {
-        CharArraySet custom = new CharArraySet(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET, true);
-        custom.add("from");
-        custom.add("about");
-        custom.add("into");
-        custom.add("through");
-        STOPWORDS = CharArraySet.unmodifiableSet(custom);
-    }
+    // Lucene's English stopword list with additions, shared with the keyword extractor
+    private static final CharArraySet STOPWORDS = TextAnalysis.STOPWORDS;
     
 
     public static double calculateSimilarity(String query, String document) {
         if (query == null || document == null || query.isEmpty() || document.isEmpty()) {
             return 0.0;
         }
-        
-        // Convert to lowercase and split into words
-        String[] queryWords = query.toLowerCase().split("\\s+");
-        String[] docWords = document.toLowerCase().split("\\s+");
-        
-        // Create word frequency vectors
-        Map<String, Integer> queryVector = createFrequencyVector(queryWords);
-        Map<String, Integer> docVector = createFrequencyVector(docWords);
-        
-        // Get all unique words
-        Set<String> allWords = new HashSet<>();
-        allWords.addAll(queryVector.keySet());
-        allWords.addAll(docVector.keySet());
-        
-        // Calculate dot product and magnitudes
-        double dotProduct = 0.0;
-        double queryMagnitude = 0.0;
-        double docMagnitude = 0.0;
-        
-        for (String word : allWords) {
-            int queryFreq = queryVector.getOrDefault(word, 0);
-            int docFreq = docVector.getOrDefault(word, 0);
-            
-            dotProduct += queryFreq * docFreq;
-            queryMagnitude += queryFreq * queryFreq;
-            docMagnitude += docFreq * docFreq;
+        return calculateSimilarity(query, AnalyzedDocument.of(document));
+    }
+
+    /**
+     * Same as calculateSimilarity(String, String), reusing the term vector of a page
+     * that is already tokenized.
+     */
+    public static double calculateSimilarity(String query, AnalyzedDocument document) {
+        if (query == null || document == null || query.isEmpty() || document.getTokenCount() == 0) {
+            return 0.0;
         }
         
-        queryMagnitude = Math.sqrt(queryMagnitude);
-        docMagnitude = Math.sqrt(docMagnitude);
+        SparseVector queryVector = createQueryVector(query);
+        SparseVector docVector = createFrequencyVector(document);
         
-        if (queryMagnitude == 0 || docMagnitude == 0) {
+        if (queryVector.norm() == 0 || docVector.norm() == 0) {
             return 0.0;
         }
         
-        double similarity = dotProduct / (queryMagnitude * docMagnitude);
+        // Merge-join over the sorted term ids
+        double similarity = queryVector.cosine(docVector);
         
         // Boost score for documents containing "International Organization of Standardization"
-        if (document.toLowerCase().contains("international organization of standardization")) {
+        if (document.getLowerText().contains("international organization of standardization")) {
             similarity += 0.3; // Boost by 0.3 (adjust as needed)
         }
         
@@ -74,17 +51,57 @@ public class CosineSimilarityRanker {
     }
     
     /**
-     * Create frequency vector from words
+     * Frequency vector of the query. It goes through the same analysis chain as the
+     * page, but its terms are only looked up (TermDictionary.find), not added to the
+     * process-wide dictionary.
      */
-    private static Map<String, Integer> createFrequencyVector(String[] words) {
-        Map<String, Integer> vector = new HashMap<>();
-        for (String word : words) {
-            // Remove punctuation and filter stopwords
-            String cleaned = word.replaceAll("[^a-z0-9]", "");
+    private static SparseVector createQueryVector(String query) {
+        SparseVector.Builder vector = new SparseVector.Builder();
+        TextAnalysis.analyze(query, (buffer, length, start, end) -> {
+            String cleaned = clean(new String(buffer, 0, length));
+            if (!cleaned.isEmpty() && !STOPWORDS.contains(cleaned)) vector.add(TermDictionary.find(cleaned), 1);
+        });
+        return vector.build();
+    }
+
+    /**
+     * Create frequency vector from the page's term vector: punctuation removed, stopwords
+     * filtered, each distinct term cleaned once instead of once per occurrence. Cleaned
+     * variants are looked up, not added to the dictionary.
+     */
+    private static SparseVector createFrequencyVector(AnalyzedDocument document) {
+        SparseVector termVector = document.getTermVector();
+        SparseVector.Builder vector = new SparseVector.Builder(termVector.size());
+        for (int i = 0; i < termVector.size(); i++) {
+            String term = document.getTerm(termVector.id(i));
+            String cleaned = clean(term);
             if (!cleaned.isEmpty() && !STOPWORDS.contains(cleaned)) {
-                vector.put(cleaned, vector.getOrDefault(cleaned, 0) + 1);
+                int id = cleaned.equals(term) ? termVector.id(i) : TermDictionary.find(cleaned);
+                vector.add(id, termVector.weight(i));
             }
         }
-        return vector;
+        return vector.build();
+    }
+
+    /**
+     * Keeps only a-z and 0-9; CJK bigrams are kept whole.
+     */
+    private static String clean(String word) {
+        if (TextAnalysis.isCjk(word.codePointAt(0))) return word;
+        int i = 0;
+        while (i < word.length() && isAsciiAlnum(word.charAt(i))) i++;
+        if (i == word.length()) return word;
+
+        StringBuilder sb = new StringBuilder(word.length());
+        sb.append(word, 0, i);
+        for (; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (isAsciiAlnum(c)) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean isAsciiAlnum(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
     }
 }
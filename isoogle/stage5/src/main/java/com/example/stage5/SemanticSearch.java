@@ -10,7 +10,7 @@ import java.util.*;
  */
 public class SemanticSearch {
     private static final int ORIGINAL_WEIGHT = 4;
-    private static final int INITIAL_RESULTS = 10;
+    private static final int INITIAL_RESULTS = 30;  // deeper candidate pool for re-ranking, fetched as parallel CSE pages
     private static final int FINAL_TOP_RESULTS = 5;
 
     public static void main(String[] args) throws Exception {
@@ -73,7 +73,7 @@ public class SemanticSearch {
             String content = sr.getContent() != null ? sr.getContent() : "";
             
             // Calculate cosine similarity between query and full content
-            double similarity = CosineSimilarityRanker.calculateSimilarity(fullQuery, content);
+            double similarity = CosineSimilarityRanker.calculateSimilarity(fullQuery, sr.getAnalyzedDocument());
             if (Double.isNaN(similarity)) similarity = 0.0;
             
             rankedResults.add(new RankedResult(sr, content, similarity));